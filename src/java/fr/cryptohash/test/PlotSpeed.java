@@ -0,0 +1,66 @@
+package fr.cryptohash.test;
+
+import rise.util.MiningPlot;
+import rise.util.Shabal256Lanes;
+
+/**
+ * Compares plot generation throughput of the one-nonce-at-a-time
+ * {@link fr.cryptohash.Shabal256} path with the multi-lane
+ * {@link Shabal256Lanes} path used for batch scoop and plot generation.
+ * Each measurement is repeated after a warm-up round so that the JIT
+ * has compiled (and vectorized) both code paths.
+ */
+
+public class PlotSpeed {
+
+	/**
+	 * Program entry point. The optional argument is the number of
+	 * nonces generated per measurement.
+	 *
+	 * @param args   the program arguments
+	 */
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+			: 8 * Shabal256Lanes.LANES;
+		for (int round = 0; round < 3; round ++) {
+			long single = speedSingle(count);
+			long lanes = speedLanes(count);
+			if (round == 0)
+				continue;
+			System.out.println("Shabal256       -> "
+				+ rate(count, single) + " nonces/s");
+			System.out.println("Shabal256Lanes  -> "
+				+ rate(count, lanes) + " nonces/s ("
+				+ Shabal256Lanes.LANES + " lanes)");
+		}
+	}
+
+	private static long speedSingle(int count)
+	{
+		byte[] scoop = new byte[MiningPlot.SCOOP_SIZE];
+		long orig = System.nanoTime();
+		for (int i = 0; i < count; i ++)
+			MiningPlot.getScoop(1L, i, 0, scoop);
+		return System.nanoTime() - orig;
+	}
+
+	private static long speedLanes(int count)
+	{
+		long[] addrs = new long[count];
+		long[] nonces = new long[count];
+		byte[][] scoops = new byte[count][MiningPlot.SCOOP_SIZE];
+		for (int i = 0; i < count; i ++) {
+			addrs[i] = 1L;
+			nonces[i] = i;
+		}
+		long orig = System.nanoTime();
+		MiningPlot.getScoops(addrs, nonces, 0, scoops);
+		return System.nanoTime() - orig;
+	}
+
+	private static String rate(int count, long nanos)
+	{
+		return Long.toString(count * 1000000000L / nanos);
+	}
+}
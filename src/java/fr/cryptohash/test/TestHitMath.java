@@ -0,0 +1,237 @@
+package fr.cryptohash.test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import rise.Constants;
+import rise.util.Convert;
+import rise.util.HitMath;
+
+/**
+ * Checks the unsigned long hit and deadline arithmetic of {@link HitMath}
+ * against the BigInteger expressions it replaced in block verification,
+ * forging and mining, then compares their speed. Every combination of
+ * edge values is checked, followed by random inputs; the first mismatch
+ * aborts the run.
+ */
+
+public class TestHitMath {
+
+	private static final long[] EDGES = {
+		0L, 1L, 2L, 3L, 1440L, 0xFFFFFFFFL, 0x100000000L, 0x100000001L,
+		Long.MAX_VALUE - 1, Long.MAX_VALUE, Long.MIN_VALUE,
+		Long.MIN_VALUE + 1, -2L, -1L,
+		Constants.INITIAL_HDD_BASE_TARGET,
+		Constants.INITIAL_POS_BASE_TARGET
+	};
+
+	private static final int[] ELAPSED = {
+		Integer.MIN_VALUE, -1, 0, 1, 2, 60, 1440, Integer.MAX_VALUE
+	};
+
+	/**
+	 * Program entry point. The optional argument is the number of random
+	 * inputs checked and timed.
+	 *
+	 * @param args   the program arguments
+	 */
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+			: 1000000;
+		testEdges();
+		testRandom(count);
+		System.out.println("HitMath matches BigInteger on "
+			+ EDGES.length + " edge values and " + count
+			+ " random inputs");
+		for (int round = 0; round < 3; round ++) {
+			long unsigned = speedHitMath(count);
+			long big = speedBigInteger(count);
+			if (round == 0)
+				continue;
+			System.out.println("HitMath     -> "
+				+ nanos(count, unsigned) + " ns per hit");
+			System.out.println("BigInteger  -> "
+				+ nanos(count, big) + " ns per hit");
+		}
+	}
+
+	private static void testEdges()
+	{
+		byte[] hash = new byte[32];
+		for (long hit : EDGES) {
+			for (int i = 0; i < 8; i ++)
+				hash[i] = (byte)(hit >>> (8 * i));
+			check(HitMath.getHit(hash) == hit
+				&& bigHit(hash).equals(unsigned(hit)),
+				"getHit " + hit);
+			for (long a : EDGES) {
+				for (int elapsed : ELAPSED)
+					checkDeadline(hit, a, elapsed);
+				for (long b : EDGES) {
+					checkDivide(hit, a, b);
+					for (long c : EDGES)
+						checkIsLess(hit, a, b, c);
+					for (long a2 : EDGES)
+						for (long b2 : EDGES)
+							checkCompare(a, b, a2, b2);
+				}
+			}
+			check(Convert.toUnsignedNumber(hit).toString()
+				.equals(unsigned(hit).toString()),
+				"toUnsignedNumber " + hit);
+		}
+	}
+
+	private static void testRandom(int count)
+	{
+		Random random = new Random(count);
+		for (int i = 0; i < count; i ++) {
+			long hit = random.nextLong();
+			// base targets and effective balances are small, hits are not
+			long a = random.nextLong() >>> random.nextInt(64);
+			long b = random.nextLong() >>> random.nextInt(64);
+			long c = random.nextInt() >>> random.nextInt(32);
+			checkIsLess(hit, a, b, c);
+			checkDivide(hit, a, b);
+			checkCompare(hit, b, random.nextLong(), a);
+			checkDeadline(hit, a, random.nextInt());
+		}
+	}
+
+	// only non-negative factors are used, as by Generator.verifyHit
+	private static void checkIsLess(long hit, long a, long b, long c)
+	{
+		if (a < 0 || b < 0 || c < 0)
+			return;
+		BigInteger effectiveBaseTarget = BigInteger.valueOf(a)
+			.multiply(BigInteger.valueOf(b));
+		BigInteger prevTarget = effectiveBaseTarget
+			.multiply(BigInteger.valueOf(c - 1));
+		BigInteger target = prevTarget.add(effectiveBaseTarget);
+		check(HitMath.isLess(hit, a, b, c)
+			== (unsigned(hit).compareTo(target) < 0),
+			"isLess " + hit + " " + a + " " + b + " " + c);
+	}
+
+	private static void checkDivide(long hit, long a, long b)
+	{
+		if (a < 0 || b < 0)
+			return;
+		BigInteger divisor = BigInteger.valueOf(a)
+			.multiply(BigInteger.valueOf(b));
+		if (divisor.signum() == 0) {
+			try {
+				HitMath.divide(hit, a, b);
+				fail("divide by zero " + hit + " " + a + " " + b);
+			} catch (ArithmeticException e) {
+				return;
+			}
+		}
+		check(HitMath.divide(hit, a, b)
+			== unsigned(hit).divide(divisor).longValue(),
+			"divide " + hit + " " + a + " " + b);
+	}
+
+	private static void checkCompare(long a1, long b1, long a2, long b2)
+	{
+		int expected = unsigned(a1).multiply(unsigned(b1))
+			.compareTo(unsigned(a2).multiply(unsigned(b2)));
+		check(Integer.signum(HitMath.compareProducts(a1, b1, a2, b2))
+			== expected, "compareProducts "
+			+ a1 + " " + b1 + " " + a2 + " " + b2);
+	}
+
+	// PoC: the deadline is hit / base target, and the block is late enough
+	// once the elapsed time exceeds it
+	private static void checkDeadline(long hit, long baseTarget, int elapsed)
+	{
+		if (baseTarget <= 0)
+			return;
+		long deadline = Long.divideUnsigned(hit, baseTarget);
+		BigInteger bigDeadline = unsigned(hit)
+			.divide(BigInteger.valueOf(baseTarget));
+		check(unsigned(deadline).equals(bigDeadline),
+			"deadline " + hit + " " + baseTarget);
+		check((elapsed > 0 && Long.compareUnsigned(elapsed, deadline) > 0)
+			== (BigInteger.valueOf(elapsed).compareTo(bigDeadline) > 0),
+			"elapsed " + hit + " " + baseTarget + " " + elapsed);
+	}
+
+	private static long speedHitMath(int count)
+	{
+		Random random = new Random(1);
+		long orig = System.nanoTime();
+		int less = 0;
+		for (int i = 0; i < count; i ++) {
+			long hit = random.nextLong();
+			long balance = random.nextInt() >>> 1;
+			if (HitMath.isLess(hit, Constants.INITIAL_POS_BASE_TARGET,
+				balance, 60))
+				less ++;
+			less += (int)HitMath.divide(hit,
+				Constants.INITIAL_POS_BASE_TARGET, balance + 1) & 1;
+		}
+		long time = System.nanoTime() - orig;
+		sink += less;
+		return time;
+	}
+
+	private static long speedBigInteger(int count)
+	{
+		Random random = new Random(1);
+		BigInteger baseTarget = BigInteger.valueOf(
+			Constants.INITIAL_POS_BASE_TARGET);
+		BigInteger sixty = BigInteger.valueOf(60);
+		byte[] hash = new byte[8];
+		long orig = System.nanoTime();
+		int less = 0;
+		for (int i = 0; i < count; i ++) {
+			long hit = random.nextLong();
+			long balance = random.nextInt() >>> 1;
+			for (int j = 0; j < 8; j ++)
+				hash[j] = (byte)(hit >>> (8 * j));
+			BigInteger bigHit = bigHit(hash);
+			BigInteger effectiveBaseTarget = baseTarget
+				.multiply(BigInteger.valueOf(balance));
+			if (bigHit.compareTo(effectiveBaseTarget.multiply(sixty)) < 0)
+				less ++;
+			less += (int)bigHit.divide(baseTarget.multiply(
+				BigInteger.valueOf(balance + 1))).longValue() & 1;
+		}
+		long time = System.nanoTime() - orig;
+		sink += less;
+		return time;
+	}
+
+	// keeps the timed loops from being optimized away
+	private static volatile long sink;
+
+	// the previous hit expression, the first 8 hash bytes little-endian
+	private static BigInteger bigHit(byte[] hash)
+	{
+		return new BigInteger(1, new byte[] {hash[7], hash[6], hash[5],
+			hash[4], hash[3], hash[2], hash[1], hash[0]});
+	}
+
+	private static BigInteger unsigned(long value)
+	{
+		return new BigInteger(Long.toUnsignedString(value));
+	}
+
+	private static String nanos(int count, long nanos)
+	{
+		return Long.toString(nanos / count);
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if (!condition)
+			fail(message);
+	}
+
+	private static void fail(String message)
+	{
+		throw new RuntimeException("test failed: " + message);
+	}
+}
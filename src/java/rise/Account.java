@@ -14,7 +14,6 @@ import rise.util.Listener;
 import rise.util.Listeners;
 import rise.util.Logger;
 
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -242,7 +241,8 @@ public final class Account {
 
     };
 
-    private static final VersionedEntityDbTable<Account> accountTable = new VersionedEntityDbTable<Account>("account", accountDbKeyFactory) {
+    private static final VersionedEntityDbTable<Account> accountTable = new VersionedEntityDbTable<Account>("account", accountDbKeyFactory,
+            Rise.getIntProperty("rise.entityCacheSize")) {
 
         @Override
         protected Account load(Connection con, ResultSet rs) throws SQLException {
@@ -308,7 +308,8 @@ public final class Account {
     	}
 	};
 	
-	private static final VersionedEntityDbTable<RewardRecipientAssignment> rewardRecipientAssignmentTable = new VersionedEntityDbTable<RewardRecipientAssignment>("reward_recip_assign", rewardRecipientAssignmentDbKeyFactory) {
+	private static final VersionedEntityDbTable<RewardRecipientAssignment> rewardRecipientAssignmentTable = new VersionedEntityDbTable<RewardRecipientAssignment>("reward_recip_assign", rewardRecipientAssignmentDbKeyFactory,
+			Rise.getIntProperty("rise.entityCacheSize")) {
 		
 		@Override
 		protected RewardRecipientAssignment load(Connection con, ResultSet rs) throws SQLException {
@@ -655,37 +656,7 @@ public final class Account {
             return (getGuaranteedBalanceNQT(1440) + getLessorsGuaranteedBalanceNQT()) / Constants.ONE_RISE;
         }
         return getLessorsGuaranteedBalanceNQT() / Constants.ONE_RISE;*/
-    	synchronized(BlockchainImpl.getInstance()) {
-    		BigInteger effectiveBalance = BigInteger.ZERO;
-    		long balance = actualBalance;
-    		try(Connection con = Db.db.getConnection();
-        			PreparedStatement pstmt = con.prepareStatement("SELECT amount, sender_id, height "
-        					+ "FROM transaction "
-        					+ "WHERE recipient_id = ? AND height > ? AND height <= ? "
-        					+ "ORDER BY height DESC, id")) {
-        		int i = 0;
-        		pstmt.setLong(++i, getId());
-        		pstmt.setInt(++i, Rise.getBlockchain().getHeight() - 20160);
-        		pstmt.setInt(++i, Rise.getBlockchain().getHeight());
-        		ResultSet rs = pstmt.executeQuery();
-        		while(rs.next() && balance > 0) {
-        			long currentAmount = Math.min(rs.getLong("amount"), balance);
-        			balance -= currentAmount;
-        			int currentHeight = Rise.getBlockchain().getHeight() - rs.getInt("height");
-        			if(Rise.getBlockchain().getHeight() > 60 && currentHeight < 60 && rs.getLong("sender_id") != getId())
-        				continue;
-        			int multiplier = 1440 + currentHeight;
-        			effectiveBalance = effectiveBalance.add(BigInteger.valueOf(currentAmount).multiply(BigInteger.valueOf(multiplier)).divide(BigInteger.valueOf(1440)));
-        		}
-        		if(balance > 0) {
-        			effectiveBalance = effectiveBalance.add(BigInteger.valueOf(balance * 15));
-        		}
-        	} catch (SQLException e) {
-    			// TODO Auto-generated catch block
-    			e.printStackTrace();
-    		}
-    		return effectiveBalance.longValue() / Constants.ONE_RISE;
-    	}
+    	return CoinAgeIndex.getEffectiveBalanceRISE(getId(), actualBalance);
     }
     
     /*public long getActualBalanceForEffective(long effectiveBalance) {
@@ -731,6 +702,7 @@ public final class Account {
     		.ecBlockHeight(0)
     		.ecBlockId(0);
     	TransactionImpl transaction = new TransactionImpl((BuilderImpl) builder, true);
+    	CoinAgeIndex.addPendingRow(transaction);
     	List<TransactionImpl> transactionList = new ArrayList<>();
     	transactionList.add(transaction);
     	try (Connection con = Db.db.getConnection()) {
@@ -753,6 +725,7 @@ public final class Account {
     		.ecBlockHeight(0)
     		.ecBlockId(0);
     	TransactionImpl transaction = new TransactionImpl((BuilderImpl) builder, true);
+    	CoinAgeIndex.addPendingRow(transaction);
     	List<TransactionImpl> transactionList = new ArrayList<>();
     	transactionList.add(transaction);
     	try (Connection con = Db.db.getConnection()) {
@@ -0,0 +1,130 @@
+package rise;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last MAX_ROLLBACK blocks of the chain, indexed by height and by id, so that the lookups peers and fork
+ * resolution make near the chain tip do not query the block table. Transactions are still loaded lazily by
+ * {@link BlockImpl#getTransactions}.
+ * <p>
+ * Only {@link BlockchainImpl} updates the cache, whenever the last block moves, under the blockchain lock. Readers
+ * take no lock and check that what they find is at the height they asked for; like a query of the block table, a
+ * lookup running while blocks are popped off may still return a block that is being removed.
+ */
+public final class BlockCache {
+
+    private static final int CAPACITY = Constants.MAX_ROLLBACK;
+
+    private static final AtomicReferenceArray<BlockImpl> blocksByHeight = new AtomicReferenceArray<>(CAPACITY);
+    private static final ConcurrentMap<Long, BlockImpl> blocksById = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static int getSize() {
+        return blocksById.size();
+    }
+
+    public static int getCapacity() {
+        return CAPACITY;
+    }
+
+    static BlockImpl getBlock(long blockId) {
+        return count(blocksById.get(blockId));
+    }
+
+    static BlockImpl getBlockAtHeight(int height) {
+        return count(get(height));
+    }
+
+    /**
+     * Returns up to limit blocks following blockId, or null if they are not all cached.
+     */
+    static List<BlockImpl> getBlocksAfter(long blockId, int limit) {
+        BlockImpl block = blocksById.get(blockId);
+        if (block == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        List<BlockImpl> blocks = new ArrayList<>();
+        int height = block.getHeight();
+        int lastHeight = BlockchainImpl.getInstance().getHeight();
+        while (blocks.size() < limit && ++height <= lastHeight) {
+            BlockImpl next = get(height);
+            if (next == null || next.getPreviousBlockId() != block.getId()) {
+                // not cached, or the chain changed while reading it
+                misses.incrementAndGet();
+                return null;
+            }
+            blocks.add(next);
+            block = next;
+        }
+        hits.incrementAndGet();
+        return blocks;
+    }
+
+    static void push(BlockImpl previousBlock, BlockImpl block) {
+        previousBlock.setNextBlockId(block.getId());
+        BlockImpl cachedPrevious = get(previousBlock.getHeight());
+        if (cachedPrevious != null && cachedPrevious.getId() == previousBlock.getId()) {
+            cachedPrevious.setNextBlockId(block.getId());
+        }
+        add(block);
+    }
+
+    static void pop(BlockImpl block, BlockImpl previousBlock) {
+        int slot = block.getHeight() % CAPACITY;
+        BlockImpl cached = blocksByHeight.get(slot);
+        if (cached != null && cached.getId() == block.getId()) {
+            blocksByHeight.compareAndSet(slot, cached, null);
+        }
+        blocksById.remove(block.getId());
+        previousBlock.setNextBlockId(0);
+        BlockImpl cachedPrevious = get(previousBlock.getHeight());
+        if (cachedPrevious != null && cachedPrevious.getId() == previousBlock.getId()) {
+            cachedPrevious.setNextBlockId(0);
+        }
+    }
+
+    static void reset(BlockImpl lastBlock) {
+        for (int i = 0; i < CAPACITY; i++) {
+            blocksByHeight.set(i, null);
+        }
+        blocksById.clear();
+        add(lastBlock);
+    }
+
+    private static void add(BlockImpl block) {
+        BlockImpl old = blocksByHeight.getAndSet(block.getHeight() % CAPACITY, block);
+        if (old != null) {
+            blocksById.remove(old.getId(), old);
+        }
+        blocksById.put(block.getId(), block);
+    }
+
+    private static BlockImpl get(int height) {
+        BlockImpl block = blocksByHeight.get(height % CAPACITY);
+        return block != null && block.getHeight() == height ? block : null;
+    }
+
+    private static BlockImpl count(BlockImpl block) {
+        (block == null ? misses : hits).incrementAndGet();
+        return block;
+    }
+
+    private BlockCache() {} // never
+
+}
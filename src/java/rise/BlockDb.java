@@ -9,6 +9,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 final class BlockDb {
 
@@ -94,42 +96,23 @@ final class BlockDb {
         }
     }
     
-    static BlockImpl findLastBlockForGen(boolean pos) {
-        if(pos) {
-        	try (Connection con = Db.db.getConnection();
-                    PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE nonce = ? ORDER BY timestamp DESC LIMIT 1")) {
-               pstmt.setLong(1, -1L);
-           	   BlockImpl block = null;
-               try (ResultSet rs = pstmt.executeQuery()) {
-                   if (rs.next()) {
-                       block = loadBlock(con, rs);
-                   }
-               }
-               return block;
-           } catch (SQLException e) {
-               throw new RuntimeException(e.toString(), e);
-           } catch (RiseException.ValidationException e) {
-               throw new RuntimeException("Last block already in database does not pass validation!", e);
-           }
-        }
-        else {
-        	try (Connection con = Db.db.getConnection();
-                    PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE nonce <> ? ORDER BY timestamp DESC LIMIT 1")) {
-               pstmt.setLong(1, -1L);
-           	   BlockImpl block = null;
-               try (ResultSet rs = pstmt.executeQuery()) {
-                   if (rs.next()) {
-                       block = loadBlock(con, rs);
-                   }
-               }
-               return block;
-           } catch (SQLException e) {
-               throw new RuntimeException(e.toString(), e);
-           } catch (RiseException.ValidationException e) {
-               throw new RuntimeException("Last block already in database does not pass validation!", e);
-           }
+    // ordering by pos_block too lets H2 read block_pos_block_height_idx in order instead of sorting
+    static List<BlockchainImpl.RecentBlock> findRecentBlocks(boolean pos, int limit) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, timestamp, base_target FROM block "
+                     + "WHERE pos_block = ? ORDER BY pos_block, height DESC LIMIT ?")) {
+            pstmt.setBoolean(1, pos);
+            pstmt.setInt(2, limit);
+            List<BlockchainImpl.RecentBlock> blocks = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    blocks.add(new BlockchainImpl.RecentBlock(rs.getLong("id"), rs.getInt("timestamp"), rs.getLong("base_target")));
+                }
+            }
+            return blocks;
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
         }
-    	
     }
 
     static BlockImpl findLastBlock(int timestamp) {
@@ -181,8 +164,8 @@ final class BlockDb {
         try {
             try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO block (id, version, timestamp, previous_block_id, "
                     + "total_amount, total_fee, payload_length, generator_public_key, previous_block_hash, cumulative_difficulty, "
-                    + "base_target, height, generation_signature, block_signature, payload_hash, generator_id, nonce) "
-                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                    + "base_target, height, generation_signature, block_signature, payload_hash, generator_id, nonce, pos_block) "
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
                 int i = 0;
                 pstmt.setLong(++i, block.getId());
                 pstmt.setInt(++i, block.getVersion());
@@ -201,6 +184,7 @@ final class BlockDb {
                 pstmt.setBytes(++i, block.getPayloadHash());
                 pstmt.setLong(++i, block.getGeneratorId());
                 pstmt.setLong(++i, block.getNonce());
+                pstmt.setBoolean(++i, block.getNonce() == -1);
                 pstmt.executeUpdate();
                 TransactionDb.saveTransactions(con, block.getTransactions());
             }
@@ -4,6 +4,7 @@ import rise.BlockchainProcessor.BlockNotAcceptedException;
 import rise.TransactionImpl.BuilderImpl;
 import rise.crypto.Crypto;
 import rise.util.Convert;
+import rise.util.HitMath;
 import rise.util.Logger;
 
 import org.json.simple.JSONArray;
@@ -13,17 +14,13 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.MessageDigest;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
-import rise.util.MiningPlot;
+import rise.util.ScoopCache;
 import fr.cryptohash.Shabal256;
 
 final class BlockImpl implements Block {
@@ -41,6 +38,8 @@ final class BlockImpl implements Block {
     private volatile List<TransactionImpl> blockTransactions;
 
     private byte[] blockSignature;
+    // the block signature was found valid for generatorPublicKey before pushing, see preVerifySignatures
+    private volatile boolean hasValidSignature;
     private BigInteger cumulativeDifficulty = BigInteger.ZERO;
     private long baseTarget = Constants.INITIAL_HDD_BASE_TARGET;
     private volatile long nextBlockId;
@@ -180,6 +179,10 @@ final class BlockImpl implements Block {
         return nextBlockId;
     }
 
+    void setNextBlockId(long nextBlockId) {
+        this.nextBlockId = nextBlockId;
+    }
+
     @Override
     public int getHeight() {
         if (height == -1) {
@@ -228,14 +231,7 @@ final class BlockImpl implements Block {
     
     @Override
     public int getScoopNum() {
-    	ByteBuffer posbuf = ByteBuffer.allocate(32 + 8);
-		posbuf.put(generationSignature);
-		posbuf.putLong(getHeight());
-		Shabal256 md = new Shabal256();
-		md.update(posbuf.array());
-		BigInteger hashnum = new BigInteger(1, md.digest());
-		int scoopNum = hashnum.mod(BigInteger.valueOf(MiningPlot.SCOOPS_PER_PLOT)).intValue();
-		return scoopNum;
+    	return MiningContext.calculateScoopNum(generationSignature, getHeight());
     }
 
     @Override
@@ -336,6 +332,31 @@ final class BlockImpl implements Block {
         blockSignature = Crypto.sign(data2, secretPhrase);
     }
 
+    /**
+     * Verifies the block signature against the generator public key, and the transaction signatures against the
+     * sender public keys, remembering the results. This needs no blockchain state and can run on any thread ahead of
+     * pushing the block; verifyBlockSignature and verifySignature then only check that these are the right keys.
+     */
+    void preVerifySignatures() {
+        preVerifyBlockSignature();
+        for (TransactionImpl transaction : getTransactions()) {
+            transaction.preVerifySignature();
+        }
+    }
+
+    void preVerifyBlockSignature() {
+        if (blockSignature != null && ! hasValidSignature) {
+            byte[] data = getBytes();
+            byte[] data2 = new byte[data.length - 64];
+            System.arraycopy(data, 0, data2, 0, data2.length);
+            hasValidSignature = Crypto.verify(blockSignature, data2, generatorPublicKey, version >= 3);
+        }
+    }
+
+    boolean hasValidSignature() {
+        return hasValidSignature;
+    }
+
     boolean verifyBlockSignature() throws BlockchainProcessor.BlockOutOfOrderException {
 
     	try {
@@ -350,7 +371,8 @@ final class BlockImpl implements Block {
     	        byte[] data2 = new byte[data.length - 64];
     	        System.arraycopy(data, 0, data2, 0, data2.length);
 
-    	        return Crypto.verify(blockSignature, data2, generatorPublicKey, version >= 3) && account.setOrVerify(generatorPublicKey, this.height);
+    	        return (hasValidSignature || Crypto.verify(blockSignature, data2, generatorPublicKey, version >= 3))
+    	                && account.setOrVerify(generatorPublicKey, this.height);
     		}
     		else {
 	    		BlockImpl previousBlock = (BlockImpl)Rise.getBlockchain().getBlock(this.previousBlockId);
@@ -379,6 +401,9 @@ final class BlockImpl implements Block {
 	            	}
 	            }
 	
+	            if (hasValidSignature && Arrays.equals(publicKey, generatorPublicKey)) {
+	            	return true;
+	            }
 	            return Crypto.verify(blockSignature, data2, publicKey, version >= 3);
     		}
     		
@@ -417,9 +442,9 @@ final class BlockImpl implements Block {
                 	return false;
                 }
 
-                BigInteger hit = new BigInteger(1, new byte[]{generationSignatureHash[7], generationSignatureHash[6], generationSignatureHash[5], generationSignatureHash[4], generationSignatureHash[3], generationSignatureHash[2], generationSignatureHash[1], generationSignatureHash[0]});
+                long hit = HitMath.getHit(generationSignatureHash);
 
-                return Generator.verifyHit(hit, BigInteger.valueOf(effectiveBalance), Rise.getBlockchain().getLastPOSBlock(), timestamp);
+                return Generator.verifyHit(hit, effectiveBalance, Rise.getBlockchain().getLastPOSBlock(), timestamp);
     		}
     		else {
     			if(Rise.getBlockchain().getHeight() >= 2365200) {
@@ -429,42 +454,25 @@ final class BlockImpl implements Block {
 	            if (previousBlock == null) {
 	                throw new BlockchainProcessor.BlockOutOfOrderException("Can't verify generation signature because previous block is missing");
 	            }
-	            BlockImpl previousHDDBlock = (BlockImpl)Rise.getBlockchain().getLastHDDBlock();
+	            MiningContext context = Rise.getBlockchain().getMiningContext();
 	
 	            //Account account = Account.getAccount(getGeneratorId());
 	
-	            ByteBuffer gensigbuf = ByteBuffer.allocate(32 + 8);
-	            gensigbuf.put(previousHDDBlock.getGenerationSignature());
-	            gensigbuf.putLong(previousHDDBlock.getGeneratorId());
-	            
-	            Shabal256 md = new Shabal256();
-	            md.update(gensigbuf.array());
-	            byte[] correctGenerationSignature = md.digest();
+	            byte[] correctGenerationSignature = context.getGenerationSignature();
 	            if(!Arrays.equals(generationSignature, correctGenerationSignature)) {
 	            	return false;
 	            }
 	            
 	            // verify poc also
-	            MiningPlot plot = new MiningPlot(getGeneratorId(), nonce);
-	            
-	            ByteBuffer posbuf = ByteBuffer.allocate(32 + 8);
-	    		posbuf.put(correctGenerationSignature);
-	    		posbuf.putLong(previousHDDBlock.getHeight() + 1);
-	    		md.reset();
-	    		md.update(posbuf.array());
-	    		BigInteger hashnum = new BigInteger(1, md.digest());
-	    		int scoopNum = hashnum.mod(BigInteger.valueOf(MiningPlot.SCOOPS_PER_PLOT)).intValue();
-	    		
-	    		md.reset();
+	            Shabal256 md = new Shabal256();
 	            md.update(correctGenerationSignature);
-	            plot.hashScoop(md, scoopNum);
+	            md.update(ScoopCache.getScoop(getGeneratorId(), nonce, context.getScoopNum()));
 	            byte[] hash = md.digest();
-	            BigInteger hit = new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
-	            BigInteger hitTime = hit.divide(BigInteger.valueOf(previousHDDBlock.getBaseTarget()));
+	            long hitTime = Long.divideUnsigned(HitMath.getHit(hash), context.getBaseTarget());
 	            
-	            int elapsedTime = timestamp - previousHDDBlock.timestamp;
+	            int elapsedTime = timestamp - context.getLastHDDTimestamp();
 	            
-	            return BigInteger.valueOf(elapsedTime).compareTo(hitTime) > 0;
+	            return elapsedTime > 0 && Long.compareUnsigned(elapsedTime, hitTime) > 0;
     		}
     		
         } catch (RuntimeException e) {
@@ -522,13 +530,7 @@ final class BlockImpl implements Block {
                 throw new IllegalStateException("Previous block id doesn't match");
             }
             this.height = block.getHeight() + 1;
-            try {
-            	this.calculateBaseTarget(block);
-            }
-            catch(SQLException e) {
-            	throw new BlockchainProcessor.BlockNotAcceptedException("Failed to calc basetarget");
-            }
-            
+            this.calculateBaseTarget(block);
         } else {
             this.height = 0;
         }
@@ -563,7 +565,7 @@ final class BlockImpl implements Block {
     	return ageDestroyed;
     }
 
-    private void calculateBaseTarget(BlockImpl previousBlock) throws SQLException {
+    private void calculateBaseTarget(BlockImpl previousBlock) {
     	
     	if(this.nonce == -1) {
     		if (this.getId() == Genesis.GENESIS_BLOCK_ID && previousBlockId == 0) {
@@ -576,17 +578,13 @@ final class BlockImpl implements Block {
 	        	BigInteger avgBaseTarget = BigInteger.ZERO;
 	        	int oldTimestamp = 0;
 	        	int numBlocks = 0;
-	        	try(Connection con = Db.db.getConnection();
-	        			PreparedStatement pstmt = con.prepareStatement("SELECT base_target, timestamp FROM block "
-	        					+ "WHERE nonce = ? "
-	        					+ "ORDER BY height DESC LIMIT 4")) {
-	        		pstmt.setLong(1, -1);
-	        		ResultSet rs = pstmt.executeQuery();
-	        		while(rs.next()) {
-	        			avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(rs.getLong("base_target")));
-	        			oldTimestamp = rs.getInt("timestamp");
-	        			numBlocks++;
+	        	for(BlockchainImpl.RecentBlock block : BlockchainImpl.getInstance().getRecentBlocks(true)) {
+	        		if(numBlocks == 4) {
+	        			break;
 	        		}
+	        		avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(block.getBaseTarget()));
+	        		oldTimestamp = block.getTimestamp();
+	        		numBlocks++;
 	        	}
 	        	if(numBlocks != 0)
 	        		avgBaseTarget = avgBaseTarget.divide(BigInteger.valueOf(numBlocks));
@@ -615,24 +613,17 @@ final class BlockImpl implements Block {
 	        	BigInteger avgBaseTarget = BigInteger.ZERO;
 	        	int blockCounter = 1;
 	        	int oldTimestamp = 0;
-	        	try(Connection con = Db.db.getConnection();
-	        			PreparedStatement pstmt = con.prepareStatement("SELECT base_target, timestamp FROM block "
-	        					+ "WHERE nonce = ? "
-	        					+ "ORDER BY height DESC LIMIT 24")) {
-	        		pstmt.setLong(1, -1);
-	        		ResultSet rs = pstmt.executeQuery();
-	        		while(rs.next()) {
-	        			blockCounter++;
-	        			if(blockCounter == 2) {
-	        				avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(rs.getLong("base_target")));
-	        			}
-	        			else {
-	        				avgBaseTarget = (avgBaseTarget.multiply(BigInteger.valueOf(blockCounter))
-        							.add(BigInteger.valueOf(rs.getLong("base_target"))))
-        							.divide(BigInteger.valueOf(blockCounter + 1));
-	        			}
-	        			oldTimestamp = rs.getInt("timestamp");
+	        	for(BlockchainImpl.RecentBlock block : BlockchainImpl.getInstance().getRecentBlocks(true)) {
+	        		blockCounter++;
+	        		if(blockCounter == 2) {
+	        			avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(block.getBaseTarget()));
 	        		}
+	        		else {
+	        			avgBaseTarget = (avgBaseTarget.multiply(BigInteger.valueOf(blockCounter))
+	        					.add(BigInteger.valueOf(block.getBaseTarget())))
+	        					.divide(BigInteger.valueOf(blockCounter + 1));
+	        		}
+	        		oldTimestamp = block.getTimestamp();
 	        	}
 	        	long difTime = this.timestamp - oldTimestamp;
 	        	long targetTimespan = 24 * 30;
@@ -677,17 +668,13 @@ final class BlockImpl implements Block {
 	        	BigInteger avgBaseTarget = BigInteger.ZERO;
 	        	int oldTimestamp = 0;
 	        	int numBlocks = 0;
-	        	try(Connection con = Db.db.getConnection();
-	        			PreparedStatement pstmt = con.prepareStatement("SELECT base_target, timestamp FROM block "
-	        					+ "WHERE nonce <> ? "
-	        					+ "ORDER BY height DESC LIMIT 4")) {
-	        		pstmt.setLong(1, -1);
-	        		ResultSet rs = pstmt.executeQuery();
-	        		while(rs.next()) {
-	        			avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(rs.getLong("base_target")));
-	        			oldTimestamp = rs.getInt("timestamp");
-	        			numBlocks++;
+	        	for(BlockchainImpl.RecentBlock block : BlockchainImpl.getInstance().getRecentBlocks(false)) {
+	        		if(numBlocks == 4) {
+	        			break;
 	        		}
+	        		avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(block.getBaseTarget()));
+	        		oldTimestamp = block.getTimestamp();
+	        		numBlocks++;
 	        	}
 	        	if(numBlocks != 0)
 	        		avgBaseTarget = avgBaseTarget.divide(BigInteger.valueOf(numBlocks));
@@ -716,24 +703,17 @@ final class BlockImpl implements Block {
 	        	BigInteger avgBaseTarget = BigInteger.ZERO;
 	        	int blockCounter = 1;
 	        	int oldTimestamp = 0;
-	        	try(Connection con = Db.db.getConnection();
-	        			PreparedStatement pstmt = con.prepareStatement("SELECT base_target, timestamp FROM block "
-	        					+ "WHERE nonce <> ? "
-	        					+ "ORDER BY height DESC LIMIT 24")) {
-	        		pstmt.setLong(1, -1);
-	        		ResultSet rs = pstmt.executeQuery();
-	        		while(rs.next()) {
-	        			blockCounter++;
-	        			if(blockCounter == 2) {
-	        				avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(rs.getLong("base_target")));
-	        			}
-	        			else {
-	        				avgBaseTarget = (avgBaseTarget.multiply(BigInteger.valueOf(blockCounter))
-        							.add(BigInteger.valueOf(rs.getLong("base_target"))))
-        							.divide(BigInteger.valueOf(blockCounter + 1));
-	        			}
-	        			oldTimestamp = rs.getInt("timestamp");
+	        	for(BlockchainImpl.RecentBlock block : BlockchainImpl.getInstance().getRecentBlocks(false)) {
+	        		blockCounter++;
+	        		if(blockCounter == 2) {
+	        			avgBaseTarget = avgBaseTarget.add(BigInteger.valueOf(block.getBaseTarget()));
+	        		}
+	        		else {
+	        			avgBaseTarget = (avgBaseTarget.multiply(BigInteger.valueOf(blockCounter))
+	        					.add(BigInteger.valueOf(block.getBaseTarget())))
+	        					.divide(BigInteger.valueOf(blockCounter + 1));
 	        		}
+	        		oldTimestamp = block.getTimestamp();
 	        	}
 	        	long difTime = this.timestamp - oldTimestamp;
 	        	long targetTimespan = 24 * 4 * 60;
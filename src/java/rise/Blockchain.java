@@ -14,6 +14,8 @@ public interface Blockchain {
     
     Block getLastHDDBlock();
 
+    MiningContext getMiningContext();
+
     Block getLastBlock(int timestamp);
 
     int getHeight();
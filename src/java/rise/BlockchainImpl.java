@@ -7,6 +7,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -25,6 +26,15 @@ final class BlockchainImpl implements Blockchain {
     
     private final AtomicReference<BlockImpl> lastPOSBlock = new AtomicReference<>();
     private final AtomicReference<BlockImpl> lastHDDBlock = new AtomicReference<>();
+    private volatile MiningContext miningContext;
+
+    // the most recent POS and HDD blocks of the chain ending at the last block, used for the base target calculation
+    // and to move lastPOSBlock and lastHDDBlock back when blocks are popped off; null when they have to be reloaded
+    // because the last block moved other than by one block. Guarded by the blockchain lock, like all changes of the
+    // last block
+    private static final int RECENT_BLOCKS = 24;
+    private RecentBlocks recentPOSBlocks;
+    private RecentBlocks recentHDDBlocks;
 
     @Override
     public BlockImpl getLastBlock() {
@@ -32,49 +42,209 @@ final class BlockchainImpl implements Blockchain {
     }
 
     void setLastBlock(BlockImpl block) {
-        lastBlock.set(block);
-        if(block.getHeight() == 0) {
-        	lastPOSBlock.set(block);
-        	lastHDDBlock.set(block);
-        }
-        else {
-        	if(block.getNonce() == -1) {
-        		lastPOSBlock.set(block);
-        	}
-        	else {
-        		lastHDDBlock.set(block);
-        	}
-        }
+        flushPendingWrites();
+        moveLastBlock(lastBlock.getAndSet(block), block);
     }
 
     void setLastBlock(BlockImpl previousBlock, BlockImpl block) {
+        flushPendingWrites();
         if (! lastBlock.compareAndSet(previousBlock, block)) {
             throw new IllegalStateException("Last block is no longer previous block");
         }
-        if(block.getHeight() == 0) {
-        	lastPOSBlock.set(block);
-        	lastHDDBlock.set(block);
+        moveLastBlock(previousBlock, block);
+    }
+
+    /**
+     * Sets lastPOSBlock and lastHDDBlock from the block table, which must end at the last block. Only queries the
+     * block table if the recent blocks were lost by moving the last block other than one block at a time.
+     */
+    void setLastBlocks() {
+        loadRecentBlocks();
+        RecentBlock POSBlock = recentPOSBlocks.peekFirst();
+        RecentBlock HDDBlock = recentHDDBlocks.peekFirst();
+        if (POSBlock != null) {
+            lastPOSBlock.set(getRecentBlock(POSBlock, lastPOSBlock.get()));
         }
         else {
-        	if(block.getNonce() == -1) {
-        		lastPOSBlock.set(block);
-        	}
-        	else {
-        		lastHDDBlock.set(block);
-        	}
+            lastPOSBlock.set(lastBlock.get());
         }
+        setLastHDDBlock(HDDBlock == null ? null : getRecentBlock(HDDBlock, lastHDDBlock.get()));
     }
-    
-    void setLastBlocks() {
-    	BlockImpl POSBlock = BlockDb.findLastBlockForGen(true);
-    	BlockImpl HDDBlock = BlockDb.findLastBlockForGen(false);
-    	if(POSBlock != null) {
-    		lastPOSBlock.set(POSBlock);
-    	}
-    	else {
-    		lastPOSBlock.set(BlockDb.findLastBlock());
-    	}
-    	lastHDDBlock.set(HDDBlock);
+
+    /**
+     * Returns up to RECENT_BLOCKS of the most recent POS or HDD blocks up to the last block, newest first. Must be
+     * called holding the blockchain lock, while the block table ends at the last block.
+     */
+    List<RecentBlock> getRecentBlocks(boolean pos) {
+        loadRecentBlocks();
+        List<RecentBlock> blocks = new ArrayList<>(RECENT_BLOCKS);
+        for (RecentBlock block : pos ? recentPOSBlocks.blocks : recentHDDBlocks.blocks) {
+            if (blocks.size() == RECENT_BLOCKS) {
+                break;
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    // entities are saved at the height current when they are written
+    private void flushPendingWrites() {
+        if (Db.db.isInTransaction()) {
+            Db.db.flushPendingWrites();
+        }
+    }
+
+    private void moveLastBlock(BlockImpl previousLastBlock, BlockImpl block) {
+        boolean forward = previousLastBlock != null && block.getPreviousBlockId() == previousLastBlock.getId();
+        boolean back = previousLastBlock != null && previousLastBlock.getPreviousBlockId() == block.getId();
+        if (forward) {
+            BlockCache.push(previousLastBlock, block);
+        } else if (back) {
+            BlockCache.pop(previousLastBlock, block);
+        } else if (previousLastBlock == null || previousLastBlock.getId() != block.getId()) {
+            BlockCache.reset(block);
+        }
+        if (block.getHeight() == 0) {
+            recentPOSBlocks = null;
+            recentHDDBlocks = null;
+            lastPOSBlock.set(block);
+            setLastHDDBlock(block);
+            return;
+        }
+        boolean pos = block.getNonce() == -1;
+        if (recentPOSBlocks != null && previousLastBlock != null) {
+            if (forward) {
+                (pos ? recentPOSBlocks : recentHDDBlocks).addFirst(new RecentBlock(block));
+            } else if (back) {
+                if (popRecentBlock(previousLastBlock, block)) {
+                    return;
+                }
+            } else if (previousLastBlock.getId() != block.getId()) {
+                // rescanning or moved to another chain, reload when next needed
+                recentPOSBlocks = null;
+                recentHDDBlocks = null;
+            }
+        }
+        if (pos) {
+            lastPOSBlock.set(block);
+        }
+        else {
+            setLastHDDBlock(block);
+        }
+    }
+
+    // moves lastPOSBlock or lastHDDBlock back to the newest remaining block of the popped block's kind
+    private boolean popRecentBlock(BlockImpl poppedBlock, BlockImpl block) {
+        boolean pos = poppedBlock.getNonce() == -1;
+        RecentBlocks recentBlocks = pos ? recentPOSBlocks : recentHDDBlocks;
+        RecentBlock removed = recentBlocks.pollFirst();
+        RecentBlock newest = recentBlocks.peekFirst();
+        if (removed == null || removed.getId() != poppedBlock.getId() || (newest == null && ! recentBlocks.complete)) {
+            // the block table still holds the popped block, so leave reloading to setLastBlocks
+            recentPOSBlocks = null;
+            recentHDDBlocks = null;
+            return false;
+        }
+        if (pos) {
+            lastPOSBlock.set(newest == null ? block : getRecentBlock(newest, block));
+        }
+        else {
+            setLastHDDBlock(newest == null ? null : getRecentBlock(newest, block));
+        }
+        return true;
+    }
+
+    private BlockImpl getRecentBlock(RecentBlock recentBlock, BlockImpl known) {
+        if (known != null && known.getId() == recentBlock.getId()) {
+            return known;
+        }
+        return getBlock(recentBlock.getId());
+    }
+
+    private void loadRecentBlocks() {
+        if (recentPOSBlocks == null || ! recentPOSBlocks.hasEnough()) {
+            recentPOSBlocks = new RecentBlocks(BlockDb.findRecentBlocks(true, RecentBlocks.CAPACITY));
+        }
+        if (recentHDDBlocks == null || ! recentHDDBlocks.hasEnough()) {
+            recentHDDBlocks = new RecentBlocks(BlockDb.findRecentBlocks(false, RecentBlocks.CAPACITY));
+        }
+    }
+
+    static final class RecentBlock {
+
+        private final long id;
+        private final int timestamp;
+        private final long baseTarget;
+
+        RecentBlock(long id, int timestamp, long baseTarget) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.baseTarget = baseTarget;
+        }
+
+        private RecentBlock(BlockImpl block) {
+            this(block.getId(), block.getTimestamp(), block.getBaseTarget());
+        }
+
+        long getId() {
+            return id;
+        }
+
+        int getTimestamp() {
+            return timestamp;
+        }
+
+        long getBaseTarget() {
+            return baseTarget;
+        }
+
+    }
+
+    // the most recent blocks of one kind, newest first, deep enough to still hold RECENT_BLOCKS after the
+    // maximum rollback
+    private static final class RecentBlocks {
+
+        private static final int CAPACITY = RECENT_BLOCKS + Constants.MAX_ROLLBACK;
+
+        private final ArrayDeque<RecentBlock> blocks;
+        // true if the chain has no older blocks of this kind
+        private boolean complete;
+
+        private RecentBlocks(List<RecentBlock> blocks) {
+            this.blocks = new ArrayDeque<>(blocks);
+            this.complete = blocks.size() < CAPACITY;
+        }
+
+        private void addFirst(RecentBlock block) {
+            blocks.addFirst(block);
+            if (blocks.size() > CAPACITY) {
+                blocks.removeLast();
+                complete = false;
+            }
+        }
+
+        private RecentBlock pollFirst() {
+            return blocks.pollFirst();
+        }
+
+        private RecentBlock peekFirst() {
+            return blocks.peekFirst();
+        }
+
+        private boolean hasEnough() {
+            return complete || blocks.size() >= RECENT_BLOCKS;
+        }
+
+    }
+
+    private void setLastHDDBlock(BlockImpl block) {
+        lastHDDBlock.set(block);
+        MiningContext context = miningContext;
+        if (block == null) {
+            miningContext = null;
+        } else if (context == null || context.getLastHDDBlockId() != block.getId()) {
+            miningContext = new MiningContext(block);
+        }
     }
 
     @Override
@@ -102,18 +272,27 @@ final class BlockchainImpl implements Blockchain {
     	return lastHDDBlock.get();
     }
 
+    @Override
+    public MiningContext getMiningContext() {
+        return miningContext;
+    }
+
     @Override
     public BlockImpl getBlock(long blockId) {
         BlockImpl block = lastBlock.get();
         if (block.getId() == blockId) {
             return block;
         }
+        block = BlockCache.getBlock(blockId);
+        if (block != null) {
+            return block;
+        }
         return BlockDb.findBlock(blockId);
     }
 
     @Override
     public boolean hasBlock(long blockId) {
-        return lastBlock.get().getId() == blockId || BlockDb.hasBlock(blockId);
+        return lastBlock.get().getId() == blockId || BlockCache.getBlock(blockId) != null || BlockDb.hasBlock(blockId);
     }
 
     @Override
@@ -200,6 +379,14 @@ final class BlockchainImpl implements Blockchain {
         if (limit > 1440) {
             throw new IllegalArgumentException("Can't get more than 1440 blocks at a time");
         }
+        List<BlockImpl> cachedBlocks = BlockCache.getBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            List<Long> result = new ArrayList<>(cachedBlocks.size());
+            for (BlockImpl block : cachedBlocks) {
+                result.add(block.getId());
+            }
+            return result;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT id FROM block WHERE db_id > (SELECT db_id FROM block WHERE id = ?) ORDER BY db_id ASC LIMIT ?")) {
             List<Long> result = new ArrayList<>();
@@ -221,6 +408,10 @@ final class BlockchainImpl implements Blockchain {
         if (limit > 1440) {
             throw new IllegalArgumentException("Can't get more than 1440 blocks at a time");
         }
+        List<BlockImpl> cachedBlocks = BlockCache.getBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            return cachedBlocks;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE db_id > (SELECT db_id FROM block WHERE id = ?) ORDER BY db_id ASC LIMIT ?")) {
             List<BlockImpl> result = new ArrayList<>();
@@ -246,6 +437,10 @@ final class BlockchainImpl implements Blockchain {
         if (height == block.getHeight()) {
             return block.getId();
         }
+        Block cachedBlock = BlockCache.getBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock.getId();
+        }
         return BlockDb.findBlockIdAtHeight(height);
     }
 
@@ -258,6 +453,10 @@ final class BlockchainImpl implements Blockchain {
         if (height == block.getHeight()) {
             return block;
         }
+        BlockImpl cachedBlock = BlockCache.getBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock;
+        }
         return BlockDb.findBlockAtHeight(height);
     }
 
@@ -20,6 +20,10 @@ public interface BlockchainProcessor extends Observable<Block,BlockchainProcesso
 
     int getLastBlockchainFeederHeight();
 
+    double getLastDownloadRate();
+
+    double getLastScanRate();
+
     boolean isScanning();
 
     int getMinRollbackHeight();
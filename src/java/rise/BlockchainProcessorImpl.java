@@ -18,7 +18,6 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 
-import fr.cryptohash.Shabal256;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -36,7 +35,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 final class BlockchainProcessorImpl implements BlockchainProcessor {
 
@@ -61,6 +69,45 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private volatile boolean forceScan = Rise.getBooleanProperty("rise.forceScan");
     private volatile boolean validateAtScan = Rise.getBooleanProperty("rise.forceValidate");
 
+    // an interrupted scan resumes from the last checkpoint, derived tables can be rolled back that far as long as
+    // checkpoints are less than MAX_ROLLBACK blocks apart
+    private static final int SCAN_CHECKPOINT_INTERVAL = 1000;
+    private static final int SCAN_PREFETCH_BLOCKS = 500;
+    private final ExecutorService scanReaderService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BlockScanReader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile double lastScanRate;
+
+    private final int syncSegmentBlocks = Math.min(Math.max(Rise.getIntProperty("rise.syncSegmentBlocks"), 1), 1440);
+    // downloads, parses and pre-verifies block segments ahead of the thread pushing them
+    private final ExecutorService blockDownloadService = Executors.newFixedThreadPool(
+            Math.max(Rise.getIntProperty("rise.syncThreads"), 1), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BlockDownload");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile double lastDownloadRate;
+
+    // verifies the transaction signatures of a pushed block in parallel, before the blockchain lock is taken
+    private final int signatureVerificationThreads = Runtime.getRuntime().availableProcessors();
+    private final ExecutorService signatureVerificationService = Executors.newFixedThreadPool(signatureVerificationThreads,
+            new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SignatureVerification");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private final Runnable getMoreBlocksThread = new Runnable() {
 
         private final JSONStreamAware getCumulativeDifficultyRequest;
@@ -126,6 +173,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         return;
                     }
 
+                    if (commonBlock.getId() == blockchain.getLastBlock().getId()) {
+                        downloadBlocks(peer, commonBlockId);
+                        return;
+                    }
+
                     long currentBlockId = commonBlockId;
                     List<BlockImpl> forkBlocks = new ArrayList<>();
 
@@ -138,23 +190,31 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                             break;
                         }
 
+                        List<BlockImpl> blocks = new ArrayList<>(nextBlocks.size());
+                        boolean parsedAll = true;
+                        for (Object o : nextBlocks) {
+                            JSONObject blockData = (JSONObject) o;
+                            BlockImpl block;
+                            try {
+                                block = BlockImpl.parseBlock(blockData);
+                            } catch (RiseException.NotCurrentlyValidException e) {
+                                Logger.logDebugMessage("Cannot validate block: " + e.toString()
+                                        + ", will try again later", e);
+                                parsedAll = false;
+                                break;
+                            } catch (RuntimeException | RiseException.ValidationException e) {
+                                Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                                peer.blacklist(e);
+                                return;
+                            }
+                            // pushed under the blockchain lock, here or by processFork, so verify the signatures first
+                            preVerifySignatures(block);
+                            blocks.add(block);
+                        }
+
                         synchronized (blockchain) {
 
-                            for (Object o : nextBlocks) {
-                                JSONObject blockData = (JSONObject) o;
-                                BlockImpl block;
-                                try {
-                                    block = BlockImpl.parseBlock(blockData);
-                                } catch (RiseException.NotCurrentlyValidException e) {
-                                    Logger.logDebugMessage("Cannot validate block: " + e.toString()
-                                            + ", will try again later", e);
-                                    processedAll = false;
-                                    break outer;
-                                } catch (RuntimeException | RiseException.ValidationException e) {
-                                    Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
-                                    peer.blacklist(e);
-                                    return;
-                                }
+                            for (BlockImpl block : blocks) {
                                 currentBlockId = block.getId();
 
                                 if (blockchain.getLastBlock().getId() == block.getPreviousBlockId()) {
@@ -172,6 +232,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
                         } //synchronized
 
+                        if (!parsedAll) {
+                            processedAll = false;
+                            break;
+                        }
+
                     }
 
                     if (forkBlocks.size() > 0) {
@@ -195,6 +260,175 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         }
 
+        /**
+         * Catches up from the last block without a fork: the block ids are taken from the feeder peer, the blocks
+         * are downloaded in segments from several peers at once, parsed and pre-verified on the download threads,
+         * and pushed here in order as the segments arrive.
+         */
+        private void downloadBlocks(Peer feeder, long lastBlockId) throws InterruptedException {
+            long startTime = System.currentTimeMillis();
+            List<Long> blockIds = new ArrayList<>();
+            long blockId = lastBlockId;
+            while (blockIds.size() < 10 * 1440) {
+                JSONArray nextBlockIds = getNextBlockIds(feeder, blockId);
+                if (nextBlockIds == null || nextBlockIds.isEmpty()) {
+                    break;
+                }
+                for (Object nextBlockId : nextBlockIds) {
+                    blockIds.add(Convert.parseUnsignedLong((String) nextBlockId));
+                }
+                blockId = blockIds.get(blockIds.size() - 1);
+                if (nextBlockIds.size() < 1440) {
+                    break;
+                }
+            }
+            if (blockIds.isEmpty()) {
+                return;
+            }
+
+            List<Peer> peers = new ArrayList<>();
+            peers.add(feeder);
+            for (Peer peer : Peers.getPeers(Peer.State.CONNECTED, true)) {
+                if (peer != feeder) {
+                    peers.add(peer);
+                }
+            }
+            List<SegmentDownload> downloads = new ArrayList<>();
+            List<Future<List<BlockImpl>>> segments = new ArrayList<>();
+            for (int i = 0; i < blockIds.size(); i += syncSegmentBlocks) {
+                SegmentDownload download = new SegmentDownload(peers.get(downloads.size() % peers.size()), feeder,
+                        i == 0 ? lastBlockId : blockIds.get(i - 1), blockIds.subList(i, Math.min(i + syncSegmentBlocks, blockIds.size())));
+                downloads.add(download);
+                segments.add(blockDownloadService.submit(download));
+            }
+
+            int pushedBlocks = 0;
+            try {
+                outer:
+                for (int i = 0; i < segments.size(); i++) {
+                    List<BlockImpl> blocks;
+                    try {
+                        blocks = segments.get(i).get();
+                    } catch (ExecutionException e) {
+                        Logger.logDebugMessage("Failed to download blocks: " + e.getCause().toString());
+                        break;
+                    }
+                    if (blocks == null) {
+                        break;
+                    }
+                    synchronized (blockchain) {
+                        for (BlockImpl block : blocks) {
+                            if (blockchain.getLastBlock().getId() != block.getPreviousBlockId()) {
+                                // a block was pushed meanwhile, the next download continues from there
+                                break outer;
+                            }
+                            try {
+                                pushBlock(block);
+                                pushedBlocks += 1;
+                            } catch (BlockNotAcceptedException e) {
+                                downloads.get(i).peer.blacklist(e);
+                                break outer;
+                            }
+                        }
+                    } // synchronized
+                }
+            } finally {
+                for (Future<List<BlockImpl>> segment : segments) {
+                    segment.cancel(true);
+                }
+            }
+
+            long elapsedTime = Math.max(System.currentTimeMillis() - startTime, 1);
+            if (pushedBlocks > 0) {
+                lastDownloadRate = pushedBlocks * 1000.0 / elapsedTime;
+                Logger.logDebugMessage("Downloaded " + pushedBlocks + " blocks from " + peers.size() + " peers in "
+                        + elapsedTime + " ms, " + String.format("%.1f", lastDownloadRate) + " blocks/s");
+            }
+        }
+
+        private final class SegmentDownload implements Callable<List<BlockImpl>> {
+
+            private volatile Peer peer;
+            private final Peer feeder;
+            private final long previousBlockId;
+            private final List<Long> blockIds;
+
+            private SegmentDownload(Peer peer, Peer feeder, long previousBlockId, List<Long> blockIds) {
+                this.peer = peer;
+                this.feeder = feeder;
+                this.previousBlockId = previousBlockId;
+                this.blockIds = blockIds;
+            }
+
+            // returns the parsed and pre-verified blocks, or null if they are not available from the peer or the feeder
+            @Override
+            public List<BlockImpl> call() {
+                List<BlockImpl> blocks = download();
+                if (blocks == null && peer != feeder) {
+                    peer = feeder;
+                    blocks = download();
+                }
+                return blocks;
+            }
+
+            private List<BlockImpl> download() {
+                List<BlockImpl> blocks = new ArrayList<>(blockIds.size());
+                long blockId = previousBlockId;
+                while (blocks.size() < blockIds.size()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return null;
+                    }
+                    JSONArray nextBlocks = getNextBlocks(peer, blockId, blockIds.size() - blocks.size());
+                    if (nextBlocks == null || nextBlocks.isEmpty()) {
+                        return null;
+                    }
+                    for (Object o : nextBlocks) {
+                        if (blocks.size() == blockIds.size()) {
+                            break;
+                        }
+                        BlockImpl block;
+                        try {
+                            block = BlockImpl.parseBlock((JSONObject) o);
+                        } catch (RiseException.NotCurrentlyValidException e) {
+                            Logger.logDebugMessage("Cannot validate block: " + e.toString() + ", will try again later", e);
+                            return null;
+                        } catch (RuntimeException | RiseException.ValidationException e) {
+                            Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                            peer.blacklist(e);
+                            return null;
+                        }
+                        if (block.getId() != blockIds.get(blocks.size())) {
+                            // the peer is on another fork than the feeder
+                            return null;
+                        }
+                        block.preVerifySignatures();
+                        blocks.add(block);
+                        blockId = block.getId();
+                    }
+                }
+                return blocks;
+            }
+
+        }
+
+        private JSONArray getNextBlockIds(Peer peer, long blockId) {
+            JSONObject request = new JSONObject();
+            request.put("requestType", "getNextBlockIds");
+            request.put("blockId", Convert.toUnsignedLong(blockId));
+            JSONObject response = peer.send(JSON.prepareRequest(request));
+            if (response == null) {
+                return null;
+            }
+            JSONArray nextBlockIds = (JSONArray) response.get("nextBlockIds");
+            // prevent overloading with blockIds
+            if (nextBlockIds != null && nextBlockIds.size() > 1440) {
+                Logger.logDebugMessage("Obsolete or rogue peer " + peer.getPeerAddress() + " sends too many nextBlockIds, blacklisting");
+                peer.blacklist();
+                return null;
+            }
+            return nextBlockIds;
+        }
+
         private long getCommonMilestoneBlockId(Peer peer) {
 
             String lastMilestoneBlockId = null;
@@ -245,23 +479,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         private long getCommonBlockId(Peer peer, long commonBlockId) {
 
             while (true) {
-                JSONObject request = new JSONObject();
-                request.put("requestType", "getNextBlockIds");
-                request.put("blockId", Convert.toUnsignedLong(commonBlockId));
-                JSONObject response = peer.send(JSON.prepareRequest(request));
-                if (response == null) {
-                    return 0;
-                }
-                JSONArray nextBlockIds = (JSONArray) response.get("nextBlockIds");
+                JSONArray nextBlockIds = getNextBlockIds(peer, commonBlockId);
                 if (nextBlockIds == null || nextBlockIds.size() == 0) {
                     return 0;
                 }
-                // prevent overloading with blockIds
-                if (nextBlockIds.size() > 1440) {
-                    Logger.logDebugMessage("Obsolete or rogue peer " + peer.getPeerAddress() + " sends too many nextBlockIds, blacklisting");
-                    peer.blacklist();
-                    return 0;
-                }
 
                 for (Object nextBlockId : nextBlockIds) {
                     long blockId = Convert.parseUnsignedLong((String) nextBlockId);
@@ -275,10 +496,17 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
 
         private JSONArray getNextBlocks(Peer peer, long curBlockId) {
+            return getNextBlocks(peer, curBlockId, 1440);
+        }
+
+        private JSONArray getNextBlocks(Peer peer, long curBlockId, int limit) {
 
             JSONObject request = new JSONObject();
             request.put("requestType", "getNextBlocks");
             request.put("blockId", Convert.toUnsignedLong(curBlockId));
+            if (limit < 1440) {
+                request.put("limit", limit);
+            }
             JSONObject response = peer.send(JSON.prepareRequest(request));
             if (response == null) {
                 return null;
@@ -355,15 +583,6 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     private BlockchainProcessorImpl() {
 
-        blockListeners.addListener(new Listener<Block>() {
-            @Override
-            public void notify(Block block) {
-                if (block.getHeight() % 5000 == 0) {
-                    Logger.logMessage("processed block " + block.getHeight());
-                }
-            }
-        }, Event.BLOCK_SCANNED);
-
         blockListeners.addListener(new Listener<Block>() {
             @Override
             public void notify(Block block) {
@@ -400,9 +619,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         ThreadPool.runBeforeStart(new Runnable() {
             @Override
             public void run() {
+                StateSnapshot.importIfConfigured();
                 addGenesisBlock();
                 if (forceScan) {
                     scan(0);
+                } else {
+                    resumeScan();
                 }
                 blockchain.setLastBlocks();
             }
@@ -427,6 +649,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         derivedTables.add(table);
     }
 
+    List<DerivedDbTable> getDerivedTables() {
+        return Collections.unmodifiableList(derivedTables);
+    }
+
     @Override
     public Peer getLastBlockchainFeeder() {
         return lastBlockchainFeeder;
@@ -483,6 +709,22 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         validateAtScan = true;
     }
 
+    @Override
+    public double getLastDownloadRate() {
+        return lastDownloadRate;
+    }
+
+    @Override
+    public double getLastScanRate() {
+        return lastScanRate;
+    }
+
+    void shutdown() {
+        ThreadPool.shutdownExecutor(blockDownloadService);
+        ThreadPool.shutdownExecutor(scanReaderService);
+        ThreadPool.shutdownExecutor(signatureVerificationService);
+    }
+
     @Override
     public void setGetMoreBlocks(boolean getMoreBlocks) {
         this.getMoreBlocks = getMoreBlocks;
@@ -541,6 +783,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         int curTime = Rise.getEpochTime();
 
+        preVerifySignatures(block);
+
         synchronized (blockchain) {
             TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
             BlockImpl previousLastBlock = null;
@@ -673,6 +917,53 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     }
 
+    /**
+     * Verifies the block and transaction signatures that are not verified yet against the keys they carry, splitting
+     * the transactions among the signature verification threads. pushBlock then only checks the keys against the
+     * accounts, under the blockchain lock.
+     */
+    private void preVerifySignatures(final BlockImpl block) {
+        final List<TransactionImpl> transactions = new ArrayList<>();
+        for (TransactionImpl transaction : block.getTransactions()) {
+            if (! transaction.hasValidSignature()) {
+                transactions.add(transaction);
+            }
+        }
+        if (transactions.size() < 2) {
+            block.preVerifySignatures();
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        if (! block.hasValidSignature()) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    block.preVerifyBlockSignature();
+                    return null;
+                }
+            });
+        }
+        int chunkSize = (transactions.size() + signatureVerificationThreads - 1) / signatureVerificationThreads;
+        for (int i = 0; i < transactions.size(); i += chunkSize) {
+            final List<TransactionImpl> chunk = transactions.subList(i, Math.min(i + chunkSize, transactions.size()));
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (TransactionImpl transaction : chunk) {
+                        transaction.preVerifySignature();
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            signatureVerificationService.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            // whatever is not verified yet is verified when pushing
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException ignore) {}
+    }
+
     private void accept(BlockImpl block) throws TransactionNotAcceptedException {
         TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
         for (TransactionImpl transaction : block.getTransactions()) {
@@ -760,6 +1051,18 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     }*/
 
     void generateBlock(String secretPhrase, byte[] publicKey, Long nonce) throws BlockNotAcceptedException {
+        BlockImpl block = prepareBlock(secretPhrase, publicKey, nonce);
+        if (block != null) {
+            pushGeneratedBlock(block);
+        }
+    }
+
+    /**
+     * Builds and signs a block on top of the last block from the unconfirmed transactions, or returns null if that
+     * fails. Forging calls this under the blockchain lock and pushes the block with pushGeneratedBlock after leaving
+     * it, so that the signatures are verified outside the lock.
+     */
+    BlockImpl prepareBlock(String secretPhrase, byte[] publicKey, Long nonce) {
 
         TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
         List<TransactionImpl> orderedUnconfirmedTransactions = new ArrayList<>();
@@ -860,13 +1163,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             generationSignature = digest.digest(idBytes.array());
         }
         else {
-        	ByteBuffer gensigbuf = ByteBuffer.allocate(32 + 8);
-            gensigbuf.put(Rise.getBlockchain().getLastHDDBlock().getGenerationSignature());
-            gensigbuf.putLong(Rise.getBlockchain().getLastHDDBlock().getGeneratorId());
-            
-            Shabal256 md = new Shabal256();
-            md.update(gensigbuf.array());
-            generationSignature = md.digest();
+        	generationSignature = blockchain.getMiningContext().getGenerationSignature();
         }
 
         BlockImpl block;
@@ -880,11 +1177,15 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         } catch (RiseException.ValidationException e) {
             // shouldn't happen because all transactions are already validated
             Logger.logMessage("Error generating block", e);
-            return;
+            return null;
         }
 
         block.sign(secretPhrase);
+        return block;
+    }
 
+    void pushGeneratedBlock(BlockImpl block) throws BlockNotAcceptedException {
+        TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
         try {
             pushBlock(block);
             blockListeners.notify(block, Event.BLOCK_GENERATED);
@@ -912,13 +1213,18 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public void scan(int height) {
+        scan(height, false);
+    }
+
+    private void scan(int height, boolean resume) {
         synchronized (blockchain) {
             TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
             int blockchainHeight = Rise.getBlockchain().getHeight();
             if (height > blockchainHeight + 1) {
                 throw new IllegalArgumentException("Rollback height " + (height - 1) + " exceeds current blockchain height of " + blockchainHeight);
             }
-            if (height > 0 && height < getMinRollbackHeight()) {
+            // the derived tables of a resumed scan are at most SCAN_CHECKPOINT_INTERVAL blocks past the checkpoint
+            if (!resume && height > 0 && height < getMinRollbackHeight()) {
                 Logger.logMessage("Rollback of more than " + Constants.MAX_ROLLBACK + " blocks not supported, will do a full scan");
                 height = 0;
             }
@@ -929,9 +1235,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             if (validateAtScan) {
                 Logger.logDebugMessage("Also verifying signatures and validating transactions...");
             }
-            try (Connection con = Db.db.beginTransaction();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? ORDER BY db_id ASC")) {
+            BlockPrefetcher prefetcher = null;
+            try (Connection con = Db.db.beginTransaction()) {
                 isScanning = true;
+                saveScanCheckpoint(con, true, height, validateAtScan);
+                Db.db.commitTransaction();
                 transactionProcessor.requeueAllUnconfirmedTransactions();
                 for (DerivedDbTable table : derivedTables) {
                     if (height == 0) {
@@ -940,104 +1248,278 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         table.rollback(height - 1);
                     }
                 }
-                pstmt.setInt(1, height);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    BlockImpl currentBlock = BlockDb.findBlockAtHeight(height);
-                    blockListeners.notify(currentBlock, Event.RESCAN_BEGIN);
-                    long currentBlockId = currentBlock.getId();
-                    if (height == 0) {
-                        blockchain.setLastBlock(currentBlock); // special case to avoid no last block
-                        Account.addOrGetAccount(Genesis.CREATOR_ID).apply(Genesis.CREATOR_PUBLIC_KEY, 0);
-                    } else {
-                        blockchain.setLastBlock(BlockDb.findBlockAtHeight(height - 1));
-                    }
-                    while (rs.next()) {
-                        try {
-                            currentBlock = BlockDb.loadBlock(con, rs);
-                            if (currentBlock.getId() != currentBlockId) {
-                            	if(currentBlockId == Genesis.GENESIS_BLOCK_ID) {
-                            		Logger.logDebugMessage("Wrong genesis block id set. Should be: " + Convert.toUnsignedLong(currentBlock.getId()));
-                            	}
-                                throw new RiseException.NotValidException("Database blocks in the wrong order!");
+                prefetcher = new BlockPrefetcher(height, validateAtScan);
+                BlockImpl currentBlock = BlockDb.findBlockAtHeight(height);
+                blockListeners.notify(currentBlock, Event.RESCAN_BEGIN);
+                long currentBlockId = currentBlock.getId();
+                if (height == 0) {
+                    blockchain.setLastBlock(currentBlock); // special case to avoid no last block
+                    Account.addOrGetAccount(Genesis.CREATOR_ID).apply(Genesis.CREATOR_PUBLIC_KEY, 0);
+                } else {
+                    blockchain.setLastBlock(BlockDb.findBlockAtHeight(height - 1));
+                }
+                long checkpointTime = System.currentTimeMillis();
+                int checkpointHeight = height;
+                ScannedBlock scannedBlock;
+                while ((scannedBlock = prefetcher.take()) != ScannedBlock.END) {
+                    try {
+                        if (scannedBlock.block != null) {
+                            currentBlock = scannedBlock.block;
+                        }
+                        scannedBlock.await();
+                        if (currentBlock.getId() != currentBlockId) {
+                        	if(currentBlockId == Genesis.GENESIS_BLOCK_ID) {
+                        		Logger.logDebugMessage("Wrong genesis block id set. Should be: " + Convert.toUnsignedLong(currentBlock.getId()));
+                        	}
+                            throw new RiseException.NotValidException("Database blocks in the wrong order!");
+                        }
+                        if (validateAtScan && currentBlockId != Genesis.GENESIS_BLOCK_ID) {
+                            // signatures were verified by the prefetcher, these only check the keys against the accounts
+                            if (!currentBlock.verifyBlockSignature()) {
+                                throw new RiseException.NotValidException("Invalid block signature");
+                            }
+                            if (!currentBlock.verifyGenerationSignature()) {
+                                throw new RiseException.NotValidException("Invalid block generation signature");
                             }
-                            if (validateAtScan && currentBlockId != Genesis.GENESIS_BLOCK_ID) {
-                                if (!currentBlock.verifyBlockSignature()) {
-                                    throw new RiseException.NotValidException("Invalid block signature");
+                            if (currentBlock.getVersion() != getBlockVersion(blockchain.getHeight())) {
+                                throw new RiseException.NotValidException("Invalid block version");
+                            }
+                            byte[] blockBytes = currentBlock.getBytes();
+                            JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
+                            if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).getBytes())) {
+                                throw new RiseException.NotValidException("Block JSON cannot be parsed back to the same block");
+                            }
+                            for (TransactionImpl transaction : currentBlock.getTransactions()) {
+                                if (!transaction.verifySignature()) {
+                                    throw new RiseException.NotValidException("Invalid transaction signature");
                                 }
-                                if (!currentBlock.verifyGenerationSignature()) {
-                                    throw new RiseException.NotValidException("Invalid block generation signature");
+                                if (transaction.getVersion() != transactionProcessor.getTransactionVersion(blockchain.getHeight())) {
+                                    throw new RiseException.NotValidException("Invalid transaction version");
                                 }
-                                if (currentBlock.getVersion() != getBlockVersion(blockchain.getHeight())) {
-                                    throw new RiseException.NotValidException("Invalid block version");
+                                /*
+                                if (!EconomicClustering.verifyFork(transaction)) {
+                                    Logger.logDebugMessage("Found transaction that was generated on a fork: " + transaction.getStringId()
+                                            + " in block " + currentBlock.getStringId() + " at height " + currentBlock.getHeight()
+                                            + " ecBlockHeight " + transaction.getECBlockHeight() + " ecBlockId " + Convert.toUnsignedLong(transaction.getECBlockId()));
+                                    //throw new RiseException.NotValidException("Invalid transaction fork");
                                 }
-                                byte[] blockBytes = currentBlock.getBytes();
-                                JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
-                                if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).getBytes())) {
-                                    throw new RiseException.NotValidException("Block JSON cannot be parsed back to the same block");
+                                */
+                                transaction.validate();
+                                // parsed transactions take their fee and format from the current height, so these stay in order
+                                byte[] transactionBytes = transaction.getBytes();
+                                if (currentBlock.getHeight() > Constants.NQT_BLOCK
+                                        && !Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionBytes).getBytes())) {
+                                    throw new RiseException.NotValidException("Transaction bytes cannot be parsed back to the same transaction");
                                 }
-                                for (TransactionImpl transaction : currentBlock.getTransactions()) {
-                                    if (!transaction.verifySignature()) {
-                                        throw new RiseException.NotValidException("Invalid transaction signature");
-                                    }
-                                    if (transaction.getVersion() != transactionProcessor.getTransactionVersion(blockchain.getHeight())) {
-                                        throw new RiseException.NotValidException("Invalid transaction version");
-                                    }
-                                    /*
-                                    if (!EconomicClustering.verifyFork(transaction)) {
-                                        Logger.logDebugMessage("Found transaction that was generated on a fork: " + transaction.getStringId()
-                                                + " in block " + currentBlock.getStringId() + " at height " + currentBlock.getHeight()
-                                                + " ecBlockHeight " + transaction.getECBlockHeight() + " ecBlockId " + Convert.toUnsignedLong(transaction.getECBlockId()));
-                                        //throw new RiseException.NotValidException("Invalid transaction fork");
-                                    }
-                                    */
-                                    transaction.validate();
-                                    byte[] transactionBytes = transaction.getBytes();
-                                    if (currentBlock.getHeight() > Constants.NQT_BLOCK
-                                            && !Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionBytes).getBytes())) {
-                                        throw new RiseException.NotValidException("Transaction bytes cannot be parsed back to the same transaction");
-                                    }
-                                    JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
-                                    if (!Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionJSON).getBytes())) {
-                                        throw new RiseException.NotValidException("Transaction JSON cannot be parsed back to the same transaction");
-                                    }
+                                JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
+                                if (!Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionJSON).getBytes())) {
+                                    throw new RiseException.NotValidException("Transaction JSON cannot be parsed back to the same transaction");
                                 }
                             }
-                            blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_ACCEPT);
-                            blockchain.setLastBlock(currentBlock);
-                            accept(currentBlock);
-                            currentBlockId = currentBlock.getNextBlockId();
-                            Db.db.commitTransaction();
-                        } catch (RiseException | RuntimeException e) {
-                            Db.db.rollbackTransaction();
-                            Logger.logDebugMessage(e.toString(), e);
-                            Logger.logDebugMessage("Applying block " + Convert.toUnsignedLong(currentBlockId) + " at height "
-                                    + (currentBlock == null ? 0 : currentBlock.getHeight()) + " failed, deleting from database");
-                            if (currentBlock != null) {
-                                transactionProcessor.processLater(currentBlock.getTransactions());
-                            }
-                            while (rs.next()) {
-                                try {
-                                    currentBlock = BlockDb.loadBlock(con, rs);
-                                    transactionProcessor.processLater(currentBlock.getTransactions());
-                                } catch (RiseException.ValidationException ignore) {
-                                }
+                        }
+                        blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_ACCEPT);
+                        blockchain.setLastBlock(currentBlock);
+                        accept(currentBlock);
+                        currentBlockId = currentBlock.getNextBlockId();
+                        boolean checkpoint = currentBlock.getHeight() % SCAN_CHECKPOINT_INTERVAL == 0;
+                        if (checkpoint) {
+                            saveScanCheckpoint(con, true, currentBlock.getHeight() + 1, validateAtScan);
+                        }
+                        Db.db.commitTransaction();
+                        if (checkpoint && currentBlock.getHeight() > checkpointHeight) {
+                            long now = System.currentTimeMillis();
+                            lastScanRate = (currentBlock.getHeight() - checkpointHeight) * 1000.0 / Math.max(now - checkpointTime, 1);
+                            Logger.logMessage(String.format("Scanned block %d of %d (%d%%), %.1f blocks/s", currentBlock.getHeight(),
+                                    blockchainHeight, (long) currentBlock.getHeight() * 100 / Math.max(blockchainHeight, 1), lastScanRate));
+                            checkpointTime = now;
+                            checkpointHeight = currentBlock.getHeight();
+                        }
+                    } catch (RiseException | RuntimeException e) {
+                        Db.db.rollbackTransaction();
+                        Logger.logDebugMessage(e.toString(), e);
+                        Logger.logDebugMessage("Applying block " + Convert.toUnsignedLong(currentBlockId) + " at height "
+                                + (currentBlock == null ? 0 : currentBlock.getHeight()) + " failed, deleting from database");
+                        if (currentBlock != null) {
+                            transactionProcessor.processLater(currentBlock.getTransactions());
+                        }
+                        ScannedBlock remainingBlock;
+                        while ((remainingBlock = prefetcher.take()) != ScannedBlock.END) {
+                            if (remainingBlock.block != null) {
+                                transactionProcessor.processLater(remainingBlock.block.getTransactions());
                             }
-                            BlockDb.deleteBlocksFrom(currentBlockId);
-                            blockchain.setLastBlock(BlockDb.findLastBlock());
                         }
-                        blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
+                        BlockDb.deleteBlocksFrom(currentBlockId);
+                        blockchain.setLastBlock(BlockDb.findLastBlock());
                     }
-                    Db.db.endTransaction();
-                    blockListeners.notify(currentBlock, Event.RESCAN_END);
+                    blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
                 }
+                saveScanCheckpoint(con, false, blockchain.getHeight() + 1, false);
+                Db.db.commitTransaction();
+                Db.db.endTransaction();
+                blockListeners.notify(currentBlock, Event.RESCAN_END);
                 validateAtScan = false;
                 Logger.logMessage("...done at height " + Rise.getBlockchain().getHeight());
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             } finally {
+                if (prefetcher != null) {
+                    prefetcher.stop();
+                }
                 isScanning = false;
             }
         } // synchronized
     }
 
+    private void resumeScan() {
+        int height;
+        boolean validate;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT rescan, height, validate FROM scan");
+             ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next() || !rs.getBoolean("rescan")) {
+                return;
+            }
+            height = rs.getInt("height");
+            validate = rs.getBoolean("validate");
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        Logger.logMessage("Resuming interrupted blockchain scan from height " + height);
+        if (validate) {
+            validateAtScan = true;
+        }
+        scan(height, true);
+    }
+
+    private static void saveScanCheckpoint(Connection con, boolean rescan, int height, boolean validate) {
+        try (PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET rescan = ?, height = ?, validate = ?")) {
+            int i = 0;
+            pstmt.setBoolean(++i, rescan);
+            pstmt.setInt(++i, height);
+            pstmt.setBoolean(++i, validate);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static final class ScannedBlock {
+
+        private static final ScannedBlock END = new ScannedBlock(null, null, null);
+
+        private final BlockImpl block;
+        private final Future<?> loaded;
+        private final RiseException.ValidationException loadFailure;
+
+        private ScannedBlock(BlockImpl block, Future<?> loaded, RiseException.ValidationException loadFailure) {
+            this.block = block;
+            this.loaded = loaded;
+            this.loadFailure = loadFailure;
+        }
+
+        private void await() throws RiseException.ValidationException {
+            if (loadFailure != null) {
+                throw loadFailure;
+            }
+            try {
+                loaded.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause().toString(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+
+    }
+
+    /**
+     * Reads the blocks to scan on the scan reader thread while the scan applies them. Transactions are loaded, and
+     * signatures verified when validating, on the signature verification threads, at most SCAN_PREFETCH_BLOCKS
+     * blocks ahead of the block being applied. Blocks are taken in db_id order, like the query returns them.
+     */
+    private final class BlockPrefetcher implements Runnable {
+
+        private final int height;
+        private final boolean verifySignatures;
+        private final BlockingQueue<ScannedBlock> queue = new ArrayBlockingQueue<>(SCAN_PREFETCH_BLOCKS);
+        private final Future<?> reader;
+        private volatile boolean stopped;
+        private volatile RuntimeException failure;
+        private boolean ended;
+
+        private BlockPrefetcher(int height, boolean verifySignatures) {
+            this.height = height;
+            this.verifySignatures = verifySignatures;
+            this.reader = scanReaderService.submit(this);
+        }
+
+        @Override
+        public void run() {
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? ORDER BY db_id ASC")) {
+                pstmt.setInt(1, height);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (!stopped && rs.next()) {
+                        final BlockImpl block;
+                        try {
+                            block = BlockDb.loadBlock(con, rs);
+                        } catch (RiseException.ValidationException e) {
+                            queue.put(new ScannedBlock(null, null, e));
+                            continue;
+                        }
+                        Future<?> loaded = signatureVerificationService.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                block.getTransactions();
+                                if (verifySignatures && block.getId() != Genesis.GENESIS_BLOCK_ID) {
+                                    block.preVerifySignatures();
+                                }
+                            }
+                        });
+                        queue.put(new ScannedBlock(block, loaded, null));
+                    }
+                }
+                queue.put(ScannedBlock.END);
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (SQLException | RuntimeException e) {
+                failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e.toString(), e);
+                try {
+                    queue.put(ScannedBlock.END);
+                } catch (InterruptedException ignore) {}
+            }
+        }
+
+        private ScannedBlock take() {
+            if (ended) {
+                return ScannedBlock.END;
+            }
+            ScannedBlock scannedBlock;
+            try {
+                scannedBlock = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e.toString(), e);
+            }
+            if (scannedBlock == ScannedBlock.END) {
+                ended = true;
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            return scannedBlock;
+        }
+
+        private void stop() {
+            stopped = true;
+            reader.cancel(true);
+            queue.clear();
+        }
+
+    }
+
 }
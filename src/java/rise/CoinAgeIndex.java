@@ -0,0 +1,308 @@
+package rise;
+
+import rise.util.Listener;
+import rise.util.ThreadPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory copy of the incoming transaction rows that determine coin age, so that effective balances are computed
+ * without querying the transaction table or taking any lock.
+ * <p>
+ * Rows are kept per recipient and height, in the order of the original "ORDER BY height DESC, id" query, for the
+ * last {@link #WINDOW} blocks plus the maximum rollback. A height is replaced as a whole after each block is applied,
+ * including the coin age reset rows written while applying it. Updates only happen in listeners running under the
+ * blockchain lock; each recipient's rows are replaced copy-on-write and the block they belong to is then published
+ * in a volatile {@link Snapshot}, so readers see an immutable view of every height up to the snapshot height. Readers
+ * that run while a block is being pushed get the effective balance as of the previous block.
+ */
+final class CoinAgeIndex {
+
+    static final int WINDOW = 20160;
+
+    private static final class Row {
+
+        private final long id;
+        private final long amount;
+        private final boolean fromSelf;
+
+        private Row(long id, long amount, boolean fromSelf) {
+            this.id = id;
+            this.amount = amount;
+            this.fromSelf = fromSelf;
+        }
+
+    }
+
+    private static final class Snapshot {
+
+        private final long blockId;
+        private final int height;
+        // recipient id -> height -> rows at that height, ordered by id; the height maps are never modified once added
+        private final ConcurrentMap<Long, NavigableMap<Integer, Row[]>> incoming;
+
+        private Snapshot(long blockId, int height, ConcurrentMap<Long, NavigableMap<Integer, Row[]>> incoming) {
+            this.blockId = blockId;
+            this.height = height;
+            this.incoming = incoming;
+        }
+
+    }
+
+    private static final Comparator<Row> rowOrder = new Comparator<Row>() {
+        @Override
+        public int compare(Row r1, Row r2) {
+            return Long.compare(r1.id, r2.id);
+        }
+    };
+
+    private static volatile Snapshot snapshot;
+
+    // guarded by the blockchain lock, like all updates
+    private static final TreeMap<Integer, Set<Long>> recipientsAtHeight = new TreeMap<>();
+    // coin age reset rows written while the current block is being applied
+    private static final List<TransactionImpl> pendingRows = new ArrayList<>();
+
+    static {
+
+        Rise.getBlockchainProcessor().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                pendingRows.clear();
+            }
+        }, BlockchainProcessor.Event.BEFORE_BLOCK_APPLY);
+
+        Rise.getBlockchainProcessor().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                Snapshot current = snapshot;
+                if (current != null) {
+                    List<TransactionImpl> rows = new ArrayList<>(((BlockImpl) block).getTransactions());
+                    for (TransactionImpl transaction : pendingRows) {
+                        if (transaction.getHeight() == block.getHeight()) {
+                            rows.add(transaction);
+                        }
+                    }
+                    setRows(current.incoming, block.getHeight(), rows);
+                    trim(current.incoming, block.getHeight() - WINDOW - Constants.MAX_ROLLBACK);
+                    snapshot = new Snapshot(block.getId(), block.getHeight(), current.incoming);
+                }
+                pendingRows.clear();
+            }
+        }, BlockchainProcessor.Event.AFTER_BLOCK_APPLY);
+
+        // the popped block's rows stay until the next block at its height replaces them, readers of the
+        // previous block's snapshot never look at them
+        Rise.getBlockchainProcessor().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                Snapshot current = snapshot;
+                if (current != null) {
+                    snapshot = new Snapshot(block.getPreviousBlockId(), block.getHeight() - 1, current.incoming);
+                }
+            }
+        }, BlockchainProcessor.Event.BLOCK_POPPED);
+
+        Rise.getBlockchainProcessor().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                if (block.getHeight() == 0) {
+                    recipientsAtHeight.clear();
+                    snapshot = new Snapshot(0, -1, new ConcurrentHashMap<Long, NavigableMap<Integer, Row[]>>());
+                } else {
+                    load(block.getPreviousBlockId(), block.getHeight() - 1);
+                }
+            }
+        }, BlockchainProcessor.Event.RESCAN_BEGIN);
+
+        ThreadPool.runBeforeStart(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BlockchainImpl.getInstance()) {
+                    if (snapshot == null) {
+                        Block lastBlock = Rise.getBlockchain().getLastBlock();
+                        load(lastBlock.getId(), lastBlock.getHeight());
+                    }
+                }
+            }
+        }, true);
+
+    }
+
+    static void init() {}
+
+    static void addPendingRow(TransactionImpl transaction) {
+        pendingRows.add(transaction);
+    }
+
+    static long getEffectiveBalanceRISE(long accountId, long actualBalance) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            // only before the index is first loaded, which needs the transaction table consistent with the last block
+            synchronized (BlockchainImpl.getInstance()) {
+                if (snapshot == null) {
+                    Block lastBlock = Rise.getBlockchain().getLastBlock();
+                    load(lastBlock.getId(), lastBlock.getHeight());
+                }
+                current = snapshot;
+            }
+        }
+        Block lastBlock = Rise.getBlockchain().getLastBlock();
+        int height = lastBlock.getHeight();
+        if (lastBlock.getId() != current.blockId && height >= current.height) {
+            // the last block is still being applied, its rows are not indexed yet
+            height -= 1;
+        }
+        long effectiveBalance = 0;
+        long balance = actualBalance;
+        NavigableMap<Integer, Row[]> rowsByHeight = current.incoming.get(accountId);
+        if (rowsByHeight != null && balance > 0) {
+            for (Map.Entry<Integer, Row[]> entry : rowsByHeight.subMap(height - WINDOW, false, height, true).descendingMap().entrySet()) {
+                if (balance <= 0) {
+                    break;
+                }
+                int age = height - entry.getKey();
+                for (Row row : entry.getValue()) {
+                    if (balance <= 0) {
+                        break;
+                    }
+                    long currentAmount = Math.min(row.amount, balance);
+                    balance -= currentAmount;
+                    if (height > 60 && age < 60 && !row.fromSelf) {
+                        continue;
+                    }
+                    // currentAmount * (1440 + age) / 1440 without overflowing the product
+                    int multiplier = 1440 + age;
+                    effectiveBalance += (currentAmount / 1440) * multiplier + (currentAmount % 1440) * multiplier / 1440;
+                }
+            }
+        }
+        if (balance > 0) {
+            effectiveBalance += balance * 15;
+        }
+        return effectiveBalance / Constants.ONE_RISE;
+    }
+
+    private static void setRows(ConcurrentMap<Long, NavigableMap<Integer, Row[]>> incoming, int height, List<TransactionImpl> transactions) {
+        Map<Long, Map<Long, Row>> rowsByRecipient = new HashMap<>();
+        for (TransactionImpl transaction : transactions) {
+            long recipientId = transaction.getRecipientId();
+            if (recipientId == 0) {
+                continue;
+            }
+            Map<Long, Row> rows = rowsByRecipient.get(recipientId);
+            if (rows == null) {
+                rows = new HashMap<>();
+                rowsByRecipient.put(recipientId, rows);
+            }
+            rows.put(transaction.getId(), new Row(transaction.getId(), transaction.getAmountNQT(), transaction.getSenderId() == recipientId));
+        }
+        Set<Long> previousRecipients = recipientsAtHeight.remove(height);
+        if (previousRecipients != null) {
+            for (Long recipientId : previousRecipients) {
+                if (!rowsByRecipient.containsKey(recipientId)) {
+                    removeRows(incoming, recipientId, height);
+                }
+            }
+        }
+        if (rowsByRecipient.isEmpty()) {
+            return;
+        }
+        Set<Long> recipients = new HashSet<>();
+        for (Map.Entry<Long, Map<Long, Row>> entry : rowsByRecipient.entrySet()) {
+            Row[] rows = entry.getValue().values().toArray(new Row[entry.getValue().size()]);
+            Arrays.sort(rows, rowOrder);
+            NavigableMap<Integer, Row[]> rowsByHeight = incoming.get(entry.getKey());
+            rowsByHeight = rowsByHeight == null ? new TreeMap<Integer, Row[]>() : new TreeMap<>(rowsByHeight);
+            rowsByHeight.put(height, rows);
+            incoming.put(entry.getKey(), rowsByHeight);
+            recipients.add(entry.getKey());
+        }
+        recipientsAtHeight.put(height, recipients);
+    }
+
+    private static void removeRows(ConcurrentMap<Long, NavigableMap<Integer, Row[]>> incoming, long recipientId, int height) {
+        NavigableMap<Integer, Row[]> rowsByHeight = new TreeMap<>(incoming.get(recipientId));
+        rowsByHeight.remove(height);
+        if (rowsByHeight.isEmpty()) {
+            incoming.remove(recipientId);
+        } else {
+            incoming.put(recipientId, rowsByHeight);
+        }
+    }
+
+    private static void trim(ConcurrentMap<Long, NavigableMap<Integer, Row[]>> incoming, int minHeight) {
+        NavigableMap<Integer, Set<Long>> expired = recipientsAtHeight.headMap(minHeight, false);
+        for (Map.Entry<Integer, Set<Long>> entry : expired.entrySet()) {
+            for (Long recipientId : entry.getValue()) {
+                removeRows(incoming, recipientId, entry.getKey());
+            }
+        }
+        expired.clear();
+    }
+
+    private static void load(long blockId, int height) {
+        Map<Long, Map<Integer, List<Row>>> rows = new HashMap<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, recipient_id, sender_id, amount, height "
+                     + "FROM transaction WHERE recipient_id IS NOT NULL AND height > ? AND height <= ?")) {
+            int i = 0;
+            pstmt.setInt(++i, height - WINDOW - Constants.MAX_ROLLBACK);
+            pstmt.setInt(++i, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long recipientId = rs.getLong("recipient_id");
+                    Map<Integer, List<Row>> recipientRows = rows.get(recipientId);
+                    if (recipientRows == null) {
+                        recipientRows = new HashMap<>();
+                        rows.put(recipientId, recipientRows);
+                    }
+                    List<Row> rowsAtHeight = recipientRows.get(rs.getInt("height"));
+                    if (rowsAtHeight == null) {
+                        rowsAtHeight = new ArrayList<>();
+                        recipientRows.put(rs.getInt("height"), rowsAtHeight);
+                    }
+                    rowsAtHeight.add(new Row(rs.getLong("id"), rs.getLong("amount"), rs.getLong("sender_id") == recipientId));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        ConcurrentMap<Long, NavigableMap<Integer, Row[]>> incoming = new ConcurrentHashMap<>();
+        recipientsAtHeight.clear();
+        for (Map.Entry<Long, Map<Integer, List<Row>>> recipientEntry : rows.entrySet()) {
+            NavigableMap<Integer, Row[]> rowsByHeight = new TreeMap<>();
+            for (Map.Entry<Integer, List<Row>> entry : recipientEntry.getValue().entrySet()) {
+                Row[] heightRows = entry.getValue().toArray(new Row[entry.getValue().size()]);
+                Arrays.sort(heightRows, rowOrder);
+                rowsByHeight.put(entry.getKey(), heightRows);
+                Set<Long> recipients = recipientsAtHeight.get(entry.getKey());
+                if (recipients == null) {
+                    recipients = new HashSet<>();
+                    recipientsAtHeight.put(entry.getKey(), recipients);
+                }
+                recipients.add(recipientEntry.getKey());
+            }
+            incoming.put(recipientEntry.getKey(), rowsByHeight);
+        }
+        snapshot = new Snapshot(blockId, height, incoming);
+    }
+
+    private CoinAgeIndex() {} // never
+
+}
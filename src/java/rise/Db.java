@@ -11,6 +11,7 @@ public final class Db {
             .maxConnections(Rise.getIntProperty("rise.maxDbConnections"))
             .loginTimeout(Rise.getIntProperty("rise.dbLoginTimeout"))
             .defaultLockTimeout(Rise.getIntProperty("rise.dbDefaultLockTimeout") * 1000)
+            .statementCacheSize(Rise.getIntProperty("rise.dbStatementCacheSize"))
     );
 
     /*
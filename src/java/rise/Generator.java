@@ -2,12 +2,13 @@ package rise;
 
 import rise.crypto.Crypto;
 import rise.util.Convert;
+import rise.util.HitMath;
+import rise.util.LatencyTracker;
 import rise.util.Listener;
 import rise.util.Listeners;
 import rise.util.Logger;
 import rise.util.ThreadPool;
 
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
@@ -17,6 +18,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 public final class Generator implements Comparable<Generator> {
@@ -32,47 +40,102 @@ public final class Generator implements Comparable<Generator> {
 
     private static final ConcurrentMap<String, Generator> generators = new ConcurrentHashMap<>();
     private static final Collection<Generator> allGenerators = Collections.unmodifiableCollection(generators.values());
-    private static volatile List<Generator> sortedForgers;
+    private static volatile List<Generator> sortedForgers = Collections.emptyList();
+    // set when forgers are added or removed, cleared by the forging thread before it ranks them again
+    private static volatile boolean forgersChanged = true;
+
+    private static final LatencyTracker rankingTime = new LatencyTracker(1000);
+    private static volatile long lastRankingTime;
+
+    // a forging attempt that did not produce a block is retried after this many milliseconds
+    private static final long FORGE_RETRY_DELAY = 500;
+
+    private static final ScheduledExecutorService forgeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "GenerateBlocks");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final boolean generateBlocksDisabled = Rise.getBooleanProperty("rise.disableGenerateBlocksThread");
+
+    // guarded by forgeTimer
+    private static ScheduledFuture<?> scheduledForge;
+    private static long scheduledForgeTime;
 
     private static final Runnable generateBlocksThread = new Runnable() {
 
-        private volatile int lastTimestamp;
-        private volatile long lastBlockId;
+        // only used by the forging thread
+        private long lastBlockId;
 
         @Override
         public void run() {
 
             try {
+                synchronized (forgeTimer) {
+                    scheduledForge = null;
+                }
                 try {
-                    int timestamp = Rise.getEpochTime();
-                    if (timestamp == lastTimestamp) {
+                    Block lastBlock = Rise.getBlockchain().getLastBlock();
+                    if (lastBlock == null || lastBlock.getHeight() < Constants.LAST_KNOWN_BLOCK
+                            || Rise.getBlockchainProcessor().isScanning()) {
+                        // a rescan pushes no blocks, so keep polling until it is done
+                        schedule(FORGE_RETRY_DELAY);
                         return;
                     }
-                    lastTimestamp = timestamp;
-                    synchronized (Rise.getBlockchain()) {
-                        Block lastBlock = Rise.getBlockchain().getLastBlock();
-                        Block lastPOSBlock = Rise.getBlockchain().getLastPOSBlock();
-                        if (lastBlock == null || lastBlock.getHeight() < Constants.LAST_KNOWN_BLOCK) {
-                            return;
-                        }
-                        if (lastBlock.getId() != lastBlockId || sortedForgers == null) {
-                            lastBlockId = lastBlock.getId();
-                            List<Generator> forgers = new ArrayList<>();
-                            for (Generator generator : generators.values()) {
-                                generator.setLastBlock(lastPOSBlock);
-                                forgers.add(generator);
+                    List<Generator> forgers = sortedForgers;
+                    if (lastBlock.getId() != lastBlockId || forgersChanged) {
+                        forgersChanged = false;
+                        forgers = rankForgers(Rise.getBlockchain().getLastPOSBlock());
+                        sortedForgers = forgers;
+                        lastBlockId = lastBlock.getId();
+                    }
+                    int timestamp = Rise.getEpochTime();
+                    if (!forgers.isEmpty() && forgers.get(0).getHitTime() < timestamp) {
+                        BlockImpl block = null;
+                        synchronized (Rise.getBlockchain()) {
+                            // ranked without the lock, so a block may have been pushed meanwhile
+                            if (Rise.getBlockchain().getLastBlock().getId() != lastBlockId) {
+                                schedule(0);
+                                return;
                             }
-                            Collections.sort(forgers);
-                            sortedForgers = Collections.unmodifiableList(forgers);
-                        }
-                        for (Generator generator : sortedForgers) {
-                            if (generator.getHitTime() > timestamp + 1 || generator.forge(lastPOSBlock, timestamp)) {
+                            Block lastPOSBlock = Rise.getBlockchain().getLastPOSBlock();
+                            for (Generator generator : forgers) {
+                                if (generator.getHitTime() >= timestamp) {
+                                    break;
+                                }
+                                block = generator.forge(lastPOSBlock, timestamp);
+                                if (block != null) {
+                                    break;
+                                }
+                            }
+                        } // synchronized
+                        if (block != null) {
+                            // pushed outside the lock, which pushBlock only takes once the signatures are verified
+                            try {
+                                BlockchainProcessorImpl.getInstance().pushGeneratedBlock(block);
+                                // pushing the block has scheduled the next round
+                                return;
+                            } catch (BlockchainProcessor.TransactionNotAcceptedException e) {
+                                if (Rise.getEpochTime() - timestamp > 10) {
+                                    throw e;
+                                }
+                                // the transaction was removed from the unconfirmed pool, forge again without it
+                                schedule(0);
                                 return;
                             }
                         }
-                    } // synchronized
+                        schedule(FORGE_RETRY_DELAY);
+                        return;
+                    }
+                    if (!forgers.isEmpty()) {
+                        schedule(forgers.get(0));
+                    }
                 } catch (Exception e) {
                     Logger.logDebugMessage("Error in block generation thread", e);
+                    schedule(FORGE_RETRY_DELAY);
                 }
             } catch (Throwable t) {
                 Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
@@ -84,12 +147,109 @@ public final class Generator implements Comparable<Generator> {
 
     };
 
+    // arms the timer for the first epoch second at which the generator's hit is below its target
+    private static void schedule(Generator generator) {
+        long forgeTime = Math.min(generator.getHitTime(), Integer.MAX_VALUE) + 1;
+        int now = Rise.getEpochTime();
+        long delay = 0;
+        if (forgeTime > now) {
+            // epoch time rounds to the nearest second, so epoch second t starts 500 ms before its full second
+            long wallClockDelay = Constants.EPOCH_BEGINNING + forgeTime * 1000 - 500 - System.currentTimeMillis();
+            delay = Math.max(Math.min(wallClockDelay, (forgeTime - now) * 1000), 1);
+        }
+        schedule(delay);
+    }
+
+    private static void schedule(long delay) {
+        if (generateBlocksDisabled) {
+            return;
+        }
+        synchronized (forgeTimer) {
+            long fireTime = System.currentTimeMillis() + delay;
+            if (scheduledForge != null) {
+                if (scheduledForgeTime <= fireTime) {
+                    return;
+                }
+                scheduledForge.cancel(false);
+            }
+            try {
+                scheduledForge = forgeTimer.schedule(generateBlocksThread, delay, TimeUnit.MILLISECONDS);
+                scheduledForgeTime = fireTime;
+            } catch (RejectedExecutionException e) {
+                scheduledForge = null;
+            }
+        }
+    }
+
+    private static List<Generator> rankForgers(Block lastPOSBlock) {
+        long start = System.currentTimeMillis();
+        Generator[] forgers = generators.values().toArray(new Generator[0]);
+        ForkJoinPool.commonPool().invoke(new RankingTask(forgers, 0, forgers.length, lastPOSBlock));
+        Arrays.sort(forgers);
+        lastRankingTime = System.currentTimeMillis() - start;
+        rankingTime.record(lastRankingTime);
+        return Collections.unmodifiableList(Arrays.asList(forgers));
+    }
+
+    private static final class RankingTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // hashing and an effective balance lookup per forger, not worth forking below this
+        private static final int THRESHOLD = 16;
+
+        private final Generator[] forgers;
+        private final int from;
+        private final int to;
+        private final Block lastPOSBlock;
+
+        private RankingTask(Generator[] forgers, int from, int to, Block lastPOSBlock) {
+            this.forgers = forgers;
+            this.from = from;
+            this.to = to;
+            this.lastPOSBlock = lastPOSBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    forgers[i].setLastBlock(lastPOSBlock);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RankingTask(forgers, from, middle, lastPOSBlock), new RankingTask(forgers, middle, to, lastPOSBlock));
+        }
+
+    }
+
     static {
-        ThreadPool.scheduleThread("GenerateBlocks", generateBlocksThread, 500, TimeUnit.MILLISECONDS);
+        Listener<Block> blockListener = new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                schedule(0);
+            }
+        };
+        Rise.getBlockchainProcessor().addListener(blockListener, BlockchainProcessor.Event.BLOCK_PUSHED);
+        Rise.getBlockchainProcessor().addListener(blockListener, BlockchainProcessor.Event.BLOCK_POPPED);
+        if (generateBlocksDisabled) {
+            Logger.logMessage("Will not run GenerateBlocks thread");
+        }
+        ThreadPool.runAfterStart(new Runnable() {
+            @Override
+            public void run() {
+                schedule(0);
+            }
+        });
     }
 
     static void init() {}
 
+    static void shutdown() {
+        ThreadPool.shutdownExecutor(forgeTimer);
+    }
+
     public static boolean addListener(Listener<Generator> listener, Event eventType) {
         return listeners.addListener(listener, eventType);
     }
@@ -105,6 +265,8 @@ public final class Generator implements Comparable<Generator> {
             Logger.logDebugMessage("Account " + Convert.toUnsignedLong(old.getAccountId()) + " is already forging");
             return old;
         }
+        forgersChanged = true;
+        schedule(0);
         listeners.notify(generator, Event.START_FORGING);
         Logger.logDebugMessage("Account " + Convert.toUnsignedLong(generator.getAccountId()) + " started forging, deadline "
                 + generator.getDeadline() + " seconds");
@@ -114,7 +276,8 @@ public final class Generator implements Comparable<Generator> {
     public static Generator stopForging(String secretPhrase) {
         Generator generator = generators.remove(secretPhrase);
         if (generator != null) {
-            sortedForgers = null;
+            forgersChanged = true;
+            schedule(0);
             Logger.logDebugMessage("Account " + Convert.toUnsignedLong(generator.getAccountId()) + " stopped forging");
             listeners.notify(generator, Event.STOP_FORGING);
         }
@@ -129,38 +292,49 @@ public final class Generator implements Comparable<Generator> {
         return allGenerators;
     }
 
-    static boolean verifyHit(BigInteger hit, BigInteger effectiveBalance, Block previousBlock, int timestamp) {
+    /**
+     * Returns all forgers ordered by hit time, as last ranked for the current last block.
+     */
+    public static List<Generator> getSortedForgers() {
+        return sortedForgers;
+    }
+
+    public static long getLastRankingTime() {
+        return lastRankingTime;
+    }
+
+    public static long getRankingTimePercentile(double percentile) {
+        return rankingTime.getPercentile(percentile);
+    }
+
+    static boolean verifyHit(long hit, long effectiveBalance, Block previousBlock, int timestamp) {
         int elapsedTime = timestamp - previousBlock.getTimestamp();
         if (elapsedTime <= 0) {
             return false;
         }
-        BigInteger effectiveBaseTarget = BigInteger.valueOf(previousBlock.getBaseTarget()).multiply(effectiveBalance);
-        BigInteger prevTarget = effectiveBaseTarget.multiply(BigInteger.valueOf(elapsedTime - 1));
-        BigInteger target = prevTarget.add(effectiveBaseTarget);
-        return hit.compareTo(target) < 0;
+        return HitMath.isLess(hit, previousBlock.getBaseTarget(), effectiveBalance, elapsedTime);
     }
 
     static long getHitTime(Account account, Block block) {
-        return getHitTime(BigInteger.valueOf(account.getEffectiveBalanceRISE()), getHit(account.getId(), block), block);
+        return getHitTime(account.getEffectiveBalanceRISE(), getHit(account.getId(), block), block);
     }
 
     static boolean allowsFakeForging(byte[] publicKey) {
         return Constants.isTestnet && publicKey != null && Arrays.equals(publicKey, fakeForgingPublicKey);
     }
 
-    private static BigInteger getHit(long id, Block block) {
+    private static long getHit(long id, Block block) {
         MessageDigest digest = Crypto.sha256();
         ByteBuffer idBytes = ByteBuffer.allocate(8);
         idBytes.putLong(id);
         idBytes.flip();
         digest.update(block.getGenerationSignature());
         byte[] generationSignatureHash = digest.digest(idBytes.array());
-        return new BigInteger(1, new byte[] {generationSignatureHash[7], generationSignatureHash[6], generationSignatureHash[5], generationSignatureHash[4], generationSignatureHash[3], generationSignatureHash[2], generationSignatureHash[1], generationSignatureHash[0]});
+        return HitMath.getHit(generationSignatureHash);
     }
 
-    private static long getHitTime(BigInteger effectiveBalance, BigInteger hit, Block block) {
-        return block.getTimestamp()
-                + hit.divide(BigInteger.valueOf(block.getBaseTarget()).multiply(effectiveBalance)).longValue();
+    private static long getHitTime(long effectiveBalance, long hit, Block block) {
+        return block.getTimestamp() + HitMath.divide(hit, block.getBaseTarget(), effectiveBalance);
     }
 
 
@@ -168,15 +342,14 @@ public final class Generator implements Comparable<Generator> {
     private final String secretPhrase;
     private final byte[] publicKey;
     private volatile long hitTime;
-    private volatile BigInteger hit;
-    private volatile BigInteger effectiveBalance;
+    private volatile long hit;
+    private volatile long effectiveBalance;
 
     private Generator(String secretPhrase) {
         this.secretPhrase = secretPhrase;
         this.publicKey = Crypto.getPublicKey(secretPhrase);
         this.accountId = Account.getId(publicKey);
         setLastBlock(Rise.getBlockchain().getLastPOSBlock());
-        sortedForgers = null;
     }
 
     public byte[] getPublicKey() {
@@ -197,7 +370,7 @@ public final class Generator implements Comparable<Generator> {
 
     @Override
     public int compareTo(Generator g) {
-        int i = this.hit.multiply(g.effectiveBalance).compareTo(g.hit.multiply(this.effectiveBalance));
+        int i = HitMath.compareProducts(this.hit, g.effectiveBalance, g.hit, this.effectiveBalance);
         if (i != 0) {
             return i;
         }
@@ -211,26 +384,18 @@ public final class Generator implements Comparable<Generator> {
 
     private void setLastBlock(Block lastBlock) {
         Account account = Account.getAccount(accountId);
-        effectiveBalance = BigInteger.valueOf(account == null || account.getEffectiveBalanceRISE() <= 0 ? 0 : account.getEffectiveBalanceRISE());
+        effectiveBalance = account == null || account.getEffectiveBalanceRISE() <= 0 ? 0 : account.getEffectiveBalanceRISE();
         hit = getHit(accountId, lastBlock);
         hitTime = getHitTime(effectiveBalance, hit, lastBlock);
         listeners.notify(this, Event.GENERATION_DEADLINE);
     }
 
-    private boolean forge(Block lastBlock, int timestamp) throws BlockchainProcessor.BlockNotAcceptedException {
+    // builds a block if the hit is below the target, the caller pushes it after leaving the blockchain lock
+    private BlockImpl forge(Block lastBlock, int timestamp) {
         if (verifyHit(hit, effectiveBalance, lastBlock, timestamp)) {
-            while (true) {
-                try {
-                    BlockchainProcessorImpl.getInstance().generateBlock(secretPhrase, publicKey, -1L);
-                    return true;
-                } catch (BlockchainProcessor.TransactionNotAcceptedException e) {
-                    if (Rise.getEpochTime() - timestamp > 10) {
-                        throw e;
-                    }
-                }
-            }
+            return BlockchainProcessorImpl.getInstance().prepareBlock(secretPhrase, publicKey, -1L);
         }
-        return false;
+        return null;
     }
 
 }
@@ -2,22 +2,28 @@ package rise;
 
 import rise.crypto.Crypto;
 import rise.util.Convert;
+import rise.util.HitMath;
 import rise.util.Listener;
 import rise.util.Listeners;
 import rise.util.Logger;
 import rise.util.ThreadPool;
-import rise.util.MiningPlot;
+import rise.util.ScoopCache;
 
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import fr.cryptohash.Shabal256;
@@ -33,29 +39,74 @@ public final class MineGenerator {
     private static final ConcurrentMap<Long, MineGenerator> generators = new ConcurrentHashMap<>();
     private static final Collection<MineGenerator> allGenerators = Collections.unmodifiableCollection(generators.values());
 
+    // a failed forging attempt is retried after this many milliseconds, as long as the nonce is still current
+    private static final long FORGE_RETRY_DELAY = 500;
+
+    // generators of the current round ordered by the epoch time at which their deadline elapses, guarded by itself
+    private static final PriorityQueue<MineGenerator> forgeQueue = new PriorityQueue<>(16, new Comparator<MineGenerator>() {
+        @Override
+        public int compare(MineGenerator o1, MineGenerator o2) {
+            return Long.compare(o1.forgeTime, o2.forgeTime);
+        }
+    });
+
+    private static final ScheduledExecutorService forgeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MineGenerateBlocks");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final boolean generateBlocksDisabled = Rise.getBooleanProperty("rise.disableMineGenerateBlocksThread");
+
+    private static ScheduledFuture<?> scheduledForge;
+    private static long scheduledForgeTime;
+
     private static final Runnable generateBlockThread = new Runnable() {
 
         @Override
         public void run() {
 
             try {
+                synchronized (forgeQueue) {
+                    scheduledForge = null;
+                }
                 if (Rise.getBlockchainProcessor().isScanning()) {
+                    schedule(FORGE_RETRY_DELAY);
                     return;
                 }
                 try {
-                    long currentBlock = Rise.getBlockchain().getLastHDDBlock().getHeight();
-                    Iterator<Entry<Long, MineGenerator>> it = generators.entrySet().iterator();
-                    while(it.hasNext()) {
-                    	Entry<Long, MineGenerator> generator = it.next();
-                    	if(currentBlock < generator.getValue().getBlock()) {
-                    		generator.getValue().forge();
-                    	}
-                    	else {
-                    		it.remove();
-                    	}
+                    List<MineGenerator> due = new ArrayList<>();
+                    synchronized (forgeQueue) {
+                        removeStaleGenerators();
+                        for (MineGenerator generator : forgeQueue) {
+                            if (generator.forgeTime <= Rise.getEpochTime()) {
+                                due.add(generator);
+                            }
+                        }
+                    }
+                    Collections.sort(due, forgeQueue.comparator());
+                    long lastHDDBlockId = Rise.getBlockchain().getLastHDDBlock().getId();
+                    for (MineGenerator generator : due) {
+                        if (Rise.getBlockchain().getLastHDDBlock().getId() != lastHDDBlockId) {
+                            break;
+                        }
+                        try {
+                            generator.forge();
+                        } catch (BlockchainProcessor.BlockNotAcceptedException e) {
+                            Logger.logDebugMessage("Error in block generation thread", e);
+                        }
+                    }
+                    if (!due.isEmpty() && Rise.getBlockchain().getLastHDDBlock().getId() == lastHDDBlockId) {
+                        schedule(FORGE_RETRY_DELAY);
+                    } else {
+                        schedule();
                     }
                 } catch (Exception e) {
                     Logger.logDebugMessage("Error in block generation thread", e);
+                    schedule(FORGE_RETRY_DELAY);
                 }
             } catch (Throwable t) {
                 Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
@@ -68,11 +119,80 @@ public final class MineGenerator {
     };
 
     static {
-        ThreadPool.scheduleThread("MineGenerateBlocks", generateBlockThread, 500, TimeUnit.MILLISECONDS);
+        Listener<Block> roundListener = new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                synchronized (forgeQueue) {
+                    removeStaleGenerators();
+                }
+                schedule();
+            }
+        };
+        Rise.getBlockchainProcessor().addListener(roundListener, BlockchainProcessor.Event.BLOCK_PUSHED);
+        Rise.getBlockchainProcessor().addListener(roundListener, BlockchainProcessor.Event.BLOCK_POPPED);
+        if (generateBlocksDisabled) {
+            Logger.logMessage("Will not run MineGenerateBlocks thread");
+        }
+    }
+
+    // must hold the forgeQueue lock
+    private static void removeStaleGenerators() {
+        long currentBlock = Rise.getBlockchain().getLastHDDBlock().getHeight();
+        Iterator<MineGenerator> it = forgeQueue.iterator();
+        while (it.hasNext()) {
+            MineGenerator generator = it.next();
+            if (currentBlock >= generator.getBlock()) {
+                it.remove();
+                generators.remove(generator.getAccountId(), generator);
+            }
+        }
+    }
+
+    // arms the timer for the moment the best deadline elapses, unless it already fires earlier
+    private static void schedule() {
+        synchronized (forgeQueue) {
+            MineGenerator best = forgeQueue.peek();
+            if (best == null) {
+                return;
+            }
+            int now = Rise.getEpochTime();
+            long delay = 0;
+            if (best.forgeTime > now) {
+                // epoch time rounds to the nearest second, so epoch second t starts 500 ms before its full second
+                long wallClockDelay = Constants.EPOCH_BEGINNING + best.forgeTime * 1000 - 500 - System.currentTimeMillis();
+                delay = Math.max(Math.min(wallClockDelay, (best.forgeTime - now) * 1000), 1);
+            }
+            schedule(delay);
+        }
+    }
+
+    private static void schedule(long delay) {
+        if (generateBlocksDisabled) {
+            return;
+        }
+        synchronized (forgeQueue) {
+            long fireTime = System.currentTimeMillis() + delay;
+            if (scheduledForge != null) {
+                if (scheduledForgeTime <= fireTime) {
+                    return;
+                }
+                scheduledForge.cancel(false);
+            }
+            try {
+                scheduledForge = forgeTimer.schedule(generateBlockThread, delay, TimeUnit.MILLISECONDS);
+                scheduledForgeTime = fireTime;
+            } catch (RejectedExecutionException e) {
+                scheduledForge = null;
+            }
+        }
     }
 
     static void init() {}
 
+    static void shutdown() {
+        ThreadPool.shutdownExecutor(forgeTimer);
+    }
+
     static void clear() {
     }
 
@@ -102,12 +222,23 @@ public final class MineGenerator {
 		Long id = Convert.fullHashToId(publicKeyHash);
 		
 		MineGenerator generator = new MineGenerator(secretPhrase, nonce, publicKey, id);
-		MineGenerator curGen = generators.get(id);
-		if(curGen == null || generator.getBlock() > curGen.getBlock() || generator.getDeadline().compareTo(curGen.getDeadline()) < 0) {
-			generators.put(id, generator);
+		boolean started = false;
+		synchronized (forgeQueue) {
+			MineGenerator curGen = generators.get(id);
+			if(curGen == null || generator.getBlock() > curGen.getBlock() || Long.compareUnsigned(generator.getDeadline(), curGen.getDeadline()) < 0) {
+				generators.put(id, generator);
+				if (curGen != null) {
+					forgeQueue.remove(curGen);
+				}
+				forgeQueue.add(generator);
+				started = true;
+			}
+		}
+		if(started) {
+			schedule();
 			listeners.notify(generator, Event.START_FORGING);
 			Logger.logDebugMessage("Account " + Convert.toUnsignedLong(id) + " started mining, deadline "
-			        + generator.getDeadline() + " seconds");
+			        + Long.toUnsignedString(generator.getDeadline()) + " seconds");
 		}
 		else {
 			Logger.logDebugMessage("Account " + Convert.toUnsignedLong(id) + " already has better nonce");
@@ -124,6 +255,10 @@ public final class MineGenerator {
     	return null;
     }
 
+    static MineGenerator getGenerator(long accountId) {
+        return generators.get(accountId);
+    }
+
     public static Collection<MineGenerator> getAllGenerators() {
         return allGenerators;
     }
@@ -131,9 +266,10 @@ public final class MineGenerator {
     private final Long accountId;
     private final String secretPhrase;
     private final byte[] publicKey;
-    private volatile BigInteger deadline;
+    private final long deadline;
     private final long nonce;
     private final long block;
+    private final long forgeTime;
 
     private MineGenerator(String secretPhrase, Long nonce, byte[] publicKey, Long account) {
         this.secretPhrase = secretPhrase;
@@ -141,39 +277,18 @@ public final class MineGenerator {
         // need to store publicKey in addition to accountId, because the account may not have had its publicKey set yet
         this.accountId = account;
         this.nonce = nonce;
-        this.block = Rise.getBlockchain().getLastHDDBlock().getHeight() + 1;
-        
-        // get new generation signature
-        Block lastBlock = Rise.getBlockchain().getLastHDDBlock();
-		byte[] lastGenSig = lastBlock.getGenerationSignature();
-		Long lastGenerator = lastBlock.getGeneratorId();
-		
-		ByteBuffer gensigbuf = ByteBuffer.allocate(32 + 8);
-		gensigbuf.put(lastGenSig);
-		gensigbuf.putLong(lastGenerator);
-		
-		Shabal256 md = new Shabal256();
-		md.update(gensigbuf.array());
-		byte[] newGenSig = md.digest();
-		
-		// calculate deadline
-		MiningPlot plot = new MiningPlot(accountId, nonce);
-		
-		ByteBuffer posbuf = ByteBuffer.allocate(32 + 8);
-		posbuf.put(newGenSig);
-		posbuf.putLong(lastBlock.getHeight() + 1);
-		md.reset();
-		md.update(posbuf.array());
-		BigInteger hashnum = new BigInteger(1, md.digest());
-		int scoopNum = hashnum.mod(BigInteger.valueOf(MiningPlot.SCOOPS_PER_PLOT)).intValue();
-		
-        md.reset();
-        md.update(newGenSig);
-        plot.hashScoop(md, scoopNum);
+        MiningContext context = Rise.getBlockchain().getMiningContext();
+        this.block = context.getHeight();
+
+        // calculate deadline
+        Shabal256 md = new Shabal256();
+        md.update(context.getGenerationSignature());
+        md.update(ScoopCache.getScoop(accountId, nonce, context.getScoopNum()));
         byte[] hash = md.digest();
-        BigInteger hit = new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
-        
-        deadline = hit.divide(BigInteger.valueOf(lastBlock.getBaseTarget()));
+        // unsigned, as with a base target of 1 the deadline can exceed Long.MAX_VALUE
+        deadline = Long.divideUnsigned(HitMath.getHit(hash), context.getBaseTarget());
+        // forge() accepts the nonce once the elapsed time exceeds the deadline
+        forgeTime = context.getLastHDDTimestamp() + (Long.compareUnsigned(deadline, Integer.MAX_VALUE) < 0 ? deadline : Integer.MAX_VALUE) + 1;
     }
 
     public byte[] getPublicKey() {
@@ -184,7 +299,7 @@ public final class MineGenerator {
         return accountId;
     }
 
-    public BigInteger getDeadline() {
+    public long getDeadline() {
         return deadline;
     }
     
@@ -196,7 +311,7 @@ public final class MineGenerator {
         Block lastBlock = Rise.getBlockchain().getLastHDDBlock();
 
         int elapsedTime = Rise.getEpochTime() - lastBlock.getTimestamp();
-        if (BigInteger.valueOf(elapsedTime).compareTo(deadline) > 0) {
+        if (elapsedTime > 0 && Long.compareUnsigned(elapsedTime, deadline) > 0) {
             BlockchainProcessorImpl.getInstance().generateBlock(secretPhrase, publicKey, nonce);
         }
 
@@ -0,0 +1,89 @@
+package rise;
+
+import rise.util.Convert;
+import rise.util.JSON;
+import rise.util.MiningPlot;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import fr.cryptohash.Shabal256;
+
+/**
+ * Everything a miner or verifier needs about the current PoC round, derived once from the last HDD block
+ * whenever {@link BlockchainImpl} moves it.
+ */
+public final class MiningContext {
+
+    public static int calculateScoopNum(byte[] generationSignature, long height) {
+        ByteBuffer posbuf = ByteBuffer.allocate(32 + 8);
+        posbuf.put(generationSignature);
+        posbuf.putLong(height);
+        Shabal256 md = new Shabal256();
+        md.update(posbuf.array());
+        BigInteger hashnum = new BigInteger(1, md.digest());
+        return hashnum.mod(BigInteger.valueOf(MiningPlot.SCOOPS_PER_PLOT)).intValue();
+    }
+
+    private final long lastHDDBlockId;
+    private final int lastHDDTimestamp;
+    private final int height;
+    private final byte[] generationSignature;
+    private final int scoopNum;
+    private final long baseTarget;
+    private final JSONStreamAware miningInfo;
+
+    MiningContext(Block lastHDDBlock) {
+        this.lastHDDBlockId = lastHDDBlock.getId();
+        this.lastHDDTimestamp = lastHDDBlock.getTimestamp();
+        this.height = lastHDDBlock.getHeight() + 1;
+        this.baseTarget = lastHDDBlock.getBaseTarget();
+
+        ByteBuffer gensigbuf = ByteBuffer.allocate(32 + 8);
+        gensigbuf.put(lastHDDBlock.getGenerationSignature());
+        gensigbuf.putLong(lastHDDBlock.getGeneratorId());
+        Shabal256 md = new Shabal256();
+        md.update(gensigbuf.array());
+        this.generationSignature = md.digest();
+
+        this.scoopNum = calculateScoopNum(generationSignature, height);
+
+        JSONObject json = new JSONObject();
+        json.put("height", Long.toString(height));
+        json.put("generationSignature", Convert.toHexString(generationSignature));
+        json.put("baseTarget", Long.toString(baseTarget));
+        this.miningInfo = JSON.prepare(json);
+    }
+
+    public long getLastHDDBlockId() {
+        return lastHDDBlockId;
+    }
+
+    public int getLastHDDTimestamp() {
+        return lastHDDTimestamp;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getGenerationSignature() {
+        return generationSignature;
+    }
+
+    public int getScoopNum() {
+        return scoopNum;
+    }
+
+    public long getBaseTarget() {
+        return baseTarget;
+    }
+
+    public JSONStreamAware getMiningInfo() {
+        return miningInfo;
+    }
+
+}
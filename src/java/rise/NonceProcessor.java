@@ -0,0 +1,174 @@
+package rise;
+
+import rise.util.Convert;
+import rise.util.LatencyTracker;
+import rise.util.Logger;
+import rise.util.ThreadPool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes submitted nonce deadlines on a bounded worker pool, so that a burst of submissions
+ * from many miners is rejected early instead of tying up API threads with plot generation.
+ */
+public final class NonceProcessor {
+
+    private static final int numberOfThreads = Rise.getIntProperty("rise.nonceProcessorThreads") > 0
+            ? Rise.getIntProperty("rise.nonceProcessorThreads") : Runtime.getRuntime().availableProcessors();
+    private static final int queueSize = Math.max(Rise.getIntProperty("rise.nonceQueueSize"), 1);
+    private static final long resultTimeout = Math.max(Rise.getIntProperty("rise.nonceResultTimeout"), 1) * 1000L;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NonceProcessor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final ConcurrentMap<Submission, Future<MineGenerator>> inFlight = new ConcurrentHashMap<>();
+    private static final LatencyTracker latency = new LatencyTracker(1024);
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong deduplicated = new AtomicLong();
+
+    /**
+     * Queues the nonce for deadline calculation. Returns null if the queue is full; the future yields null
+     * if the submission was dropped because it can no longer improve the account's deadline for its round,
+     * and is cancelled if it was shared with an identical submission that found the queue full.
+     */
+    public static Future<MineGenerator> submit(final String secretPhrase, final long nonce, final byte[] publicKey) {
+        final long accountId = Account.getId(publicKey);
+        final int height = Rise.getBlockchain().getLastHDDBlock().getHeight() + 1;
+        final Submission submission = new Submission(accountId, nonce, height);
+        final long submitTime = System.currentTimeMillis();
+        FutureTask<MineGenerator> task = new FutureTask<>(new Callable<MineGenerator>() {
+            @Override
+            public MineGenerator call() {
+                try {
+                    if (height != Rise.getBlockchain().getLastHDDBlock().getHeight() + 1 || !canImprove(accountId, height)) {
+                        dropped.incrementAndGet();
+                        return null;
+                    }
+                    return MineGenerator.addNonce(secretPhrase, nonce, publicKey);
+                } finally {
+                    inFlight.remove(submission);
+                    latency.record(System.currentTimeMillis() - submitTime);
+                }
+            }
+        });
+        Future<MineGenerator> existing = inFlight.putIfAbsent(submission, task);
+        if (existing != null) {
+            deduplicated.incrementAndGet();
+            return existing;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(submission);
+            // release the requests that were deduplicated onto this task meanwhile
+            task.cancel(false);
+            rejected.incrementAndGet();
+            Logger.logDebugMessage("Nonce queue full, rejecting nonce " + Convert.toUnsignedLong(nonce));
+            return null;
+        }
+        return task;
+    }
+
+    /**
+     * Milliseconds an API request waits for a submitted nonce's deadline before answering without it.
+     */
+    public static long getResultTimeout() {
+        return resultTimeout;
+    }
+
+    public static int getThreadCount() {
+        return numberOfThreads;
+    }
+
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public static int getQueueCapacity() {
+        return queueSize;
+    }
+
+    public static int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public static long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public static long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    public static long getProcessedCount() {
+        return latency.getCount();
+    }
+
+    public static long getLatencyPercentile(double percentile) {
+        return latency.getPercentile(percentile);
+    }
+
+    static void shutdown() {
+        ThreadPool.shutdownExecutor(executor);
+    }
+
+    // deadlines are never negative, so once an account has a zero deadline for the round nothing can beat it
+    private static boolean canImprove(long accountId, int height) {
+        MineGenerator best = MineGenerator.getGenerator(accountId);
+        return best == null || best.getBlock() != height || best.getDeadline() != 0;
+    }
+
+    private static final class Submission {
+
+        private final long accountId;
+        private final long nonce;
+        private final int height;
+
+        private Submission(long accountId, long nonce, int height) {
+            this.accountId = accountId;
+            this.nonce = nonce;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Submission)) {
+                return false;
+            }
+            Submission other = (Submission)o;
+            return other.accountId == accountId && other.nonce == nonce && other.height == height;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = (accountId * 31 + nonce) * 31 + height;
+            return (int)(h ^ (h >>> 32));
+        }
+
+    }
+
+    private NonceProcessor() {} // never
+
+}
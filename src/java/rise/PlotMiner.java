@@ -0,0 +1,250 @@
+package rise;
+
+import rise.crypto.Crypto;
+import rise.util.Convert;
+import rise.util.HitMath;
+import rise.util.Listener;
+import rise.util.Logger;
+import rise.util.MiningPlot;
+import rise.util.ThreadPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import fr.cryptohash.Shabal256;
+
+/**
+ * Mines with local plot files. Plot files are named accountId_startNonce_nonces_stagger and store each group of
+ * stagger nonces scoop by scoop, so for every round only the stagger * SCOOP_SIZE bytes of the selected scoop are
+ * read from each group. The best nonce found per account is handed to {@link MineGenerator#addNonce}.
+ */
+public final class PlotMiner {
+
+    // map at most this many nonces of a scoop region at once, 64 MB
+    private static final int MAX_CHUNK_NONCES = 1 << 20;
+
+    private static final String secretPhrase = Rise.getStringProperty("rise.minerSecretPhrase");
+    private static final List<PlotFile> plotFiles = new ArrayList<>();
+    private static final ExecutorService executor;
+
+    private static volatile Round currentRound;
+
+    static {
+        if (secretPhrase != null) {
+            for (String path : Rise.getStringListProperty("rise.plotPaths")) {
+                addPlotFiles(new File(path));
+            }
+        }
+        if (plotFiles.isEmpty()) {
+            executor = null;
+        } else {
+            int numberOfThreads = Rise.getIntProperty("rise.minerThreads") > 0
+                    ? Rise.getIntProperty("rise.minerThreads") : Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, plotFiles.size()), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PlotMiner");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            Listener<Block> roundListener = new Listener<Block>() {
+                @Override
+                public void notify(Block block) {
+                    startRound();
+                }
+            };
+            Rise.getBlockchainProcessor().addListener(roundListener, BlockchainProcessor.Event.BLOCK_PUSHED);
+            Rise.getBlockchainProcessor().addListener(roundListener, BlockchainProcessor.Event.BLOCK_POPPED);
+            ThreadPool.runAfterStart(new Runnable() {
+                @Override
+                public void run() {
+                    startRound();
+                }
+            });
+            Logger.logMessage("Mining with " + plotFiles.size() + " plot files");
+        }
+    }
+
+    static void init() {}
+
+    static void shutdown() {
+        if (executor != null) {
+            ThreadPool.shutdownExecutor(executor);
+        }
+    }
+
+    private static void addPlotFiles(File path) {
+        File[] files = path.isDirectory() ? path.listFiles() : new File[] {path};
+        if (files == null) {
+            Logger.logMessage("Cannot read plot path " + path);
+            return;
+        }
+        for (File file : files) {
+            PlotFile plotFile = PlotFile.parse(file);
+            if (plotFile != null) {
+                plotFiles.add(plotFile);
+            }
+        }
+    }
+
+    private static void startRound() {
+        MiningContext context = Rise.getBlockchain().getMiningContext();
+        Round round = currentRound;
+        if (context == null || Rise.getBlockchainProcessor().isScanning()
+                || (round != null && round.context == context)) {
+            return;
+        }
+        round = new Round(context);
+        currentRound = round;
+        for (PlotFile plotFile : plotFiles) {
+            executor.submit(new MineTask(round, plotFile));
+        }
+    }
+
+    private static final class Round {
+
+        private final MiningContext context;
+        private final Map<Long, Long> bestDeadlines = new HashMap<>();
+
+        private Round(MiningContext context) {
+            this.context = context;
+        }
+
+        private boolean isCurrent() {
+            return currentRound == this;
+        }
+
+        private synchronized boolean improves(long accountId, long deadline) {
+            Long best = bestDeadlines.get(accountId);
+            if (best != null && Long.compareUnsigned(best, deadline) <= 0) {
+                return false;
+            }
+            bestDeadlines.put(accountId, deadline);
+            return true;
+        }
+
+    }
+
+    private static final class MineTask implements Runnable {
+
+        private final Round round;
+        private final PlotFile plotFile;
+
+        private MineTask(Round round, PlotFile plotFile) {
+            this.round = round;
+            this.plotFile = plotFile;
+        }
+
+        @Override
+        public void run() {
+            if (!round.isCurrent()) {
+                return;
+            }
+            long bestNonce = 0;
+            long bestDeadline = -1;
+            Shabal256 md = new Shabal256();
+            byte[] scoop = new byte[MiningPlot.SCOOP_SIZE];
+            byte[] hash = new byte[32];
+            try (FileChannel channel = FileChannel.open(plotFile.file.toPath(), StandardOpenOption.READ)) {
+                for (long group = 0; group < plotFile.nonces / plotFile.stagger; group++) {
+                    long regionStart = group * plotFile.stagger * MiningPlot.PLOT_SIZE
+                            + (long) round.context.getScoopNum() * plotFile.stagger * MiningPlot.SCOOP_SIZE;
+                    for (long offset = 0; offset < plotFile.stagger; offset += MAX_CHUNK_NONCES) {
+                        if (!round.isCurrent()) {
+                            return;
+                        }
+                        int count = (int) Math.min(MAX_CHUNK_NONCES, plotFile.stagger - offset);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                regionStart + offset * MiningPlot.SCOOP_SIZE, (long) count * MiningPlot.SCOOP_SIZE);
+                        for (int i = 0; i < count; i++) {
+                            buffer.get(scoop);
+                            md.update(round.context.getGenerationSignature());
+                            md.update(scoop);
+                            md.digest(hash, 0, hash.length);
+                            long deadline = Long.divideUnsigned(HitMath.getHit(hash), round.context.getBaseTarget());
+                            if (bestDeadline == -1 || Long.compareUnsigned(deadline, bestDeadline) < 0) {
+                                bestDeadline = deadline;
+                                bestNonce = plotFile.startNonce + group * plotFile.stagger + offset + i;
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Logger.logMessage("Error reading plot file " + plotFile.file, e);
+                return;
+            }
+            if (bestDeadline == -1 || !round.isCurrent()
+                    || !round.improves(plotFile.accountId, bestDeadline)) {
+                return;
+            }
+            submit(plotFile.accountId, bestNonce);
+        }
+
+    }
+
+    private static void submit(long accountId, long nonce) {
+        byte[] publicKey = Crypto.getPublicKey(secretPhrase);
+        if (Account.getId(publicKey) != accountId) {
+            Account account = Account.getAccount(accountId);
+            if (account == null || account.getPublicKey() == null) {
+                Logger.logDebugMessage("Cannot mine for account " + Convert.toUnsignedLong(accountId)
+                        + ", passthrough mining requires public key in blockchain");
+                return;
+            }
+            publicKey = account.getPublicKey();
+        }
+        MineGenerator.addNonce(secretPhrase, nonce, publicKey);
+    }
+
+    private static final class PlotFile {
+
+        private final File file;
+        private final long accountId;
+        private final long startNonce;
+        private final long nonces;
+        private final long stagger;
+
+        private PlotFile(File file, long accountId, long startNonce, long nonces, long stagger) {
+            this.file = file;
+            this.accountId = accountId;
+            this.startNonce = startNonce;
+            this.nonces = nonces;
+            this.stagger = stagger;
+        }
+
+        private static PlotFile parse(File file) {
+            String[] parts = file.getName().split("_");
+            if (!file.isFile() || parts.length != 4) {
+                return null;
+            }
+            try {
+                long accountId = Convert.parseUnsignedLong(parts[0]);
+                long startNonce = Long.parseLong(parts[1]);
+                long nonces = Long.parseLong(parts[2]);
+                long stagger = Long.parseLong(parts[3]);
+                if (nonces <= 0 || stagger <= 0 || nonces % stagger != 0 || file.length() != nonces * MiningPlot.PLOT_SIZE) {
+                    Logger.logMessage("Ignoring incomplete or malformed plot file " + file);
+                    return null;
+                }
+                return new PlotFile(file, accountId, startNonce, nonces, stagger);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+    }
+
+    private PlotMiner() {} // never
+
+}
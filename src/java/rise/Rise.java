@@ -153,6 +153,11 @@ public final class Rise {
         API.shutdown();
         Users.shutdown();
         Peers.shutdown();
+        BlockchainProcessorImpl.getInstance().shutdown();
+        NonceProcessor.shutdown();
+        Generator.shutdown();
+        MineGenerator.shutdown();
+        PlotMiner.shutdown();
         ThreadPool.shutdown();
         Db.shutdown();
         Logger.logShutdownMessage("Rise server " + VERSION + " stopped.");
@@ -169,6 +174,7 @@ public final class Rise {
                 TransactionProcessorImpl.getInstance();
                 BlockchainProcessorImpl.getInstance();
                 Account.init();
+                CoinAgeIndex.init();
                 Alias.init();
                 Asset.init();
                 DigitalGoodsStore.init();
@@ -181,6 +187,7 @@ public final class Rise {
                 Peers.init();
                 Generator.init();
                 MineGenerator.init();
+                PlotMiner.init();
                 API.init();
                 Users.init();
                 DebugTrace.init();
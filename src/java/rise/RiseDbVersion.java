@@ -394,6 +394,17 @@ class RiseDbVersion extends DbVersion {
             case 141:
             	apply("CREATE INDEX IF NOT EXISTS transaction_recipient_id_height_idx ON transaction (recipient_id, height DESC)");
             case 142:
+                apply("ALTER TABLE block ADD COLUMN IF NOT EXISTS pos_block BOOLEAN NOT NULL DEFAULT FALSE");
+            case 143:
+                apply("UPDATE block SET pos_block = TRUE WHERE nonce = -1");
+            case 144:
+                apply("CREATE INDEX IF NOT EXISTS block_pos_block_height_idx ON block (pos_block, height DESC)");
+            case 145:
+                apply("CREATE TABLE IF NOT EXISTS scan (rescan BOOLEAN NOT NULL DEFAULT FALSE, height INT NOT NULL DEFAULT 0, "
+                        + "validate BOOLEAN NOT NULL DEFAULT FALSE)");
+            case 146:
+                apply("INSERT INTO scan (rescan, height, validate) VALUES (false, 0, false)");
+            case 147:
                 return;
             default:
                 throw new RuntimeException("Blockchain database inconsistent with code, probably trying to run older code on newer database");
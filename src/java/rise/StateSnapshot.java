@@ -0,0 +1,428 @@
+package rise;
+
+import rise.crypto.Crypto;
+import rise.db.DerivedDbTable;
+import rise.util.Convert;
+import rise.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot of the chain and derived state at one height, so that a new node can start from it instead of applying
+ * every block.
+ * <p>
+ * The file holds every row of the block and transaction tables up to that height and every row of the tables
+ * registered with {@link BlockchainProcessor#registerDerivedTable}, as rolled back to that height, including the
+ * history needed for later rollbacks. Blocks and transactions are included because derived state such as coin age is
+ * computed from them, and the block table cannot hold a chain that does not start with the genesis block. The
+ * unconfirmed_transaction table is left out: it is the exporting node's own pool of pending transactions, not chain
+ * state, and would make snapshots of the same height differ between nodes. The content
+ * is gzipped; its SHA-256 hash, stored at the end, is the commitment that an importing node checks against
+ * rise.snapshotHash.
+ */
+public final class StateSnapshot {
+
+    private static final byte[] MAGIC = "RISESNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 2;
+    private static final int BATCH_SIZE = 1000;
+    // node local, see the class comment
+    private static final String UNCONFIRMED_TRANSACTION_TABLE = "unconfirmed_transaction";
+
+    private final File file;
+    private final int height;
+    private final long blockId;
+    private final byte[] hash;
+
+    private StateSnapshot(File file, int height, long blockId, byte[] hash) {
+        this.file = file;
+        this.height = height;
+        this.blockId = blockId;
+        this.hash = hash;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getBlockId() {
+        return blockId;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * Writes the state at the given height, which must not be below the minimum rollback height, to a new file in
+     * rise.snapshotDir. Derived tables are rolled back to that height in a database transaction that is then
+     * discarded, holding the blockchain lock throughout.
+     */
+    public static StateSnapshot export(int height) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        synchronized (blockchain) {
+            if (height > blockchain.getHeight() || height < Rise.getBlockchainProcessor().getMinRollbackHeight()) {
+                throw new IllegalArgumentException("Height " + height + " not between minimum rollback height "
+                        + Rise.getBlockchainProcessor().getMinRollbackHeight() + " and blockchain height " + blockchain.getHeight());
+            }
+            long blockId = blockchain.getBlockIdAtHeight(height);
+            File dir = new File(Rise.getStringProperty("rise.snapshotDir"));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new RuntimeException("Cannot create snapshot directory " + dir);
+            }
+            File file = new File(dir, "rise_snapshot_" + height + "_" + Convert.toUnsignedLong(blockId) + ".bin");
+            File tmpFile = new File(dir, file.getName() + ".tmp");
+            long start = System.currentTimeMillis();
+            byte[] hash;
+            try (Connection con = Db.db.beginTransaction()) {
+                if (height < blockchain.getHeight()) {
+                    for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+                        table.rollback(height);
+                    }
+                    try (PreparedStatement pstmt = con.prepareStatement("UPDATE block SET next_block_id = NULL WHERE height = ?")) {
+                        pstmt.setInt(1, height);
+                        pstmt.executeUpdate();
+                    }
+                }
+                MessageDigest digest = Crypto.sha256();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(new FileOutputStream(tmpFile))) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(gzip, digest)));
+                    out.write(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(height);
+                    out.writeLong(blockId);
+                    List<String> tables = getTables();
+                    out.writeInt(tables.size());
+                    for (String table : tables) {
+                        String where = "block".equals(table) || "transaction".equals(table) ? " WHERE height <= " + height : "";
+                        exportTable(con, table, where, out);
+                    }
+                    out.flush();
+                    hash = digest.digest();
+                    gzip.write(hash);
+                }
+            } catch (IOException | SQLException e) {
+                tmpFile.delete();
+                throw new RuntimeException(e.toString(), e);
+            } finally {
+                Db.db.rollbackTransaction();
+                Db.db.endTransaction();
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new RuntimeException("Cannot rename " + tmpFile + " to " + file);
+            }
+            Logger.logMessage("Exported snapshot at height " + height + " to " + file + " in "
+                    + (System.currentTimeMillis() - start) / 1000 + " s, hash " + Convert.toHexString(hash));
+            return new StateSnapshot(file, height, blockId, hash);
+        }
+    }
+
+    /**
+     * Loads the snapshot file set in rise.snapshotFile into an empty database, before the genesis block is added.
+     * Nothing is imported unless the hash of the content matches the one stored in the file and, if set,
+     * rise.snapshotHash.
+     */
+    static void importIfConfigured() {
+        String fileName = Convert.emptyToNull(Rise.getStringProperty("rise.snapshotFile"));
+        if (fileName == null) {
+            return;
+        }
+        if (BlockDb.hasBlock(Genesis.GENESIS_BLOCK_ID)) {
+            Logger.logMessage("Blockchain database not empty, ignoring snapshot " + fileName);
+            return;
+        }
+        byte[] expectedHash = Convert.parseHexString(Convert.emptyToNull(Rise.getStringProperty("rise.snapshotHash")));
+        if (expectedHash == null) {
+            Logger.logMessage("rise.snapshotHash not set, the snapshot is only checked against the hash it contains");
+        }
+        File file = new File(fileName);
+        Logger.logMessage("Importing snapshot " + file + "...");
+        long start = System.currentTimeMillis();
+        setReferentialIntegrity(false);
+        try (Connection con = Db.db.beginTransaction()) {
+            MessageDigest digest = Crypto.sha256();
+            int height;
+            try (GZIPInputStream gzip = new GZIPInputStream(new FileInputStream(file))) {
+                BufferedInputStream buffered = new BufferedInputStream(gzip);
+                DataInputStream in = new DataInputStream(new DigestInputStream(buffered, digest));
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC) || in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Not a snapshot file, or written by an incompatible version");
+                }
+                height = in.readInt();
+                long blockId = in.readLong();
+                List<String> tables = getTables();
+                if (in.readInt() != tables.size()) {
+                    throw new IOException("Snapshot tables do not match the database tables");
+                }
+                while (!tables.isEmpty()) {
+                    String table = in.readUTF();
+                    if (!tables.remove(table)) {
+                        throw new IOException("Unknown or repeated table " + table + " in snapshot");
+                    }
+                    importTable(con, table, in);
+                }
+                byte[] hash = digest.digest();
+                byte[] storedHash = new byte[hash.length];
+                new DataInputStream(buffered).readFully(storedHash);
+                if (!Arrays.equals(hash, storedHash)) {
+                    throw new IOException("Snapshot content does not match its hash");
+                }
+                if (expectedHash != null && !Arrays.equals(hash, expectedHash)) {
+                    throw new IOException("Snapshot hash " + Convert.toHexString(hash) + " does not match rise.snapshotHash");
+                }
+                try (PreparedStatement pstmt = con.prepareStatement("SELECT id FROM block WHERE height = ?")) {
+                    pstmt.setInt(1, height);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (!rs.next() || rs.getLong("id") != blockId) {
+                            throw new IOException("Snapshot does not contain its last block");
+                        }
+                    }
+                }
+                Logger.logMessage("Snapshot hash " + Convert.toHexString(hash));
+            }
+            Db.db.commitTransaction();
+            Logger.logMessage("...imported snapshot at height " + height + " in " + (System.currentTimeMillis() - start) / 1000 + " s");
+        } catch (IOException | SQLException | RuntimeException e) {
+            Db.db.rollbackTransaction();
+            throw new RuntimeException("Failed to import snapshot " + file + ": " + e.toString(), e);
+        } finally {
+            Db.db.endTransaction();
+            setReferentialIntegrity(true);
+        }
+    }
+
+    // blocks first, so that the tables follow the order the rows were created in
+    private static List<String> getTables() {
+        List<String> tables = new ArrayList<>();
+        tables.add("block");
+        tables.add("transaction");
+        for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+            if (!UNCONFIRMED_TRANSACTION_TABLE.equals(table.getTable())) {
+                tables.add(table.getTable());
+            }
+        }
+        return tables;
+    }
+
+    private static void exportTable(Connection con, String table, String where, DataOutputStream out) throws SQLException, IOException {
+        Map<String, Integer> columns = getColumns(con, table);
+        out.writeUTF(table);
+        out.writeInt(columns.size());
+        for (Map.Entry<String, Integer> column : columns.entrySet()) {
+            out.writeUTF(column.getKey());
+            out.writeInt(column.getValue());
+        }
+        int[] types = new int[columns.size()];
+        int i = 0;
+        for (int type : columns.values()) {
+            types[i++] = type;
+        }
+        long rows = 0;
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + join(columns.keySet()) + " FROM " + table + where + " ORDER BY db_id")) {
+            while (rs.next()) {
+                out.writeBoolean(true);
+                for (int column = 0; column < types.length; column++) {
+                    writeValue(out, types[column], rs.getObject(column + 1));
+                }
+                rows += 1;
+            }
+        }
+        out.writeBoolean(false);
+        Logger.logDebugMessage("Exported " + rows + " rows of " + table);
+    }
+
+    private static void importTable(Connection con, String table, DataInputStream in) throws SQLException, IOException {
+        Map<String, Integer> tableColumns = getColumns(con, table);
+        int count = in.readInt();
+        List<String> columns = new ArrayList<>(count);
+        int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            String column = in.readUTF();
+            types[i] = in.readInt();
+            if (!Integer.valueOf(types[i]).equals(tableColumns.get(column))) {
+                throw new IOException("Column " + table + "." + column + " in snapshot does not match the database");
+            }
+            columns.add(column);
+        }
+        if (columns.size() != tableColumns.size()) {
+            throw new IOException("Columns of " + table + " in snapshot do not match the database");
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(join(columns)).append(") VALUES (?");
+        for (int i = 1; i < count; i++) {
+            sql.append(", ?");
+        }
+        sql.append(")");
+        long rows = 0;
+        try (PreparedStatement pstmt = con.prepareStatement(sql.toString())) {
+            while (in.readBoolean()) {
+                for (int i = 0; i < count; i++) {
+                    pstmt.setObject(i + 1, readValue(in, types[i]));
+                }
+                pstmt.addBatch();
+                if (++rows % BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+        }
+        Logger.logDebugMessage("Imported " + rows + " rows of " + table);
+    }
+
+    // computed columns, such as alias.alias_name_lower, cannot be inserted
+    private static Map<String, Integer> getColumns(Connection con, String table) throws SQLException {
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT column_name, data_type FROM information_schema.columns "
+                + "WHERE table_schema = 'PUBLIC' AND table_name = ? AND is_computed = FALSE ORDER BY ordinal_position")) {
+            pstmt.setString(1, table.toUpperCase());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.put(rs.getString("column_name").toLowerCase(), rs.getInt("data_type"));
+                }
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new SQLException("Table " + table + " not found");
+        }
+        return columns;
+    }
+
+    private static void writeValue(DataOutputStream out, int type, Object value) throws SQLException, IOException {
+        out.writeBoolean(value != null);
+        if (value == null) {
+            return;
+        }
+        switch (type) {
+            case Types.BIGINT:
+                out.writeLong(((Number) value).longValue());
+                break;
+            case Types.INTEGER:
+                out.writeInt(((Number) value).intValue());
+                break;
+            case Types.SMALLINT:
+                out.writeShort(((Number) value).shortValue());
+                break;
+            case Types.TINYINT:
+                out.writeByte(((Number) value).byteValue());
+                break;
+            case Types.BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case Types.VARCHAR:
+                writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+                break;
+            case Types.BINARY:
+            case Types.VARBINARY:
+                writeBytes(out, (byte[]) value);
+                break;
+            case Types.ARRAY:
+                Object[] array = value instanceof Array ? (Object[]) ((Array) value).getArray() : (Object[]) value;
+                out.writeInt(array.length);
+                for (Object element : array) {
+                    writeBytes(out, ((String) element).getBytes(StandardCharsets.UTF_8));
+                }
+                break;
+            default:
+                throw new SQLException("Unsupported column type " + type);
+        }
+    }
+
+    private static Object readValue(DataInputStream in, int type) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        switch (type) {
+            case Types.BIGINT:
+                return in.readLong();
+            case Types.INTEGER:
+                return in.readInt();
+            case Types.SMALLINT:
+                return in.readShort();
+            case Types.TINYINT:
+                return in.readByte();
+            case Types.BOOLEAN:
+                return in.readBoolean();
+            case Types.VARCHAR:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case Types.BINARY:
+            case Types.VARBINARY:
+                return readBytes(in);
+            case Types.ARRAY:
+                String[] array = new String[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+                }
+                return array;
+            default:
+                throw new IOException("Unsupported column type " + type);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static String join(Iterable<String> columns) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(column);
+        }
+        return sb.toString();
+    }
+
+    // block rows reference blocks imported after them through next_block_id
+    private static void setReferentialIntegrity(boolean enabled) {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            stmt.executeUpdate("SET REFERENTIAL_INTEGRITY " + (enabled ? "TRUE" : "FALSE"));
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+}
@@ -185,6 +185,8 @@ final class TransactionImpl implements Transaction {
     private volatile long blockId;
     private volatile Block block;
     private volatile byte[] signature;
+    // the signature was found valid for senderPublicKey, see preVerifySignature
+    private volatile boolean hasValidSignature;
     private volatile int blockTimestamp = -1;
     private volatile long id;
     private volatile String stringId;
@@ -746,8 +748,25 @@ final class TransactionImpl implements Transaction {
         if (signature == null) {
             return false;
         }
-        byte[] data = zeroSignature(getBytes());
-        return Crypto.verify(signature, data, senderPublicKey, useNQT()) && account.setOrVerify(senderPublicKey, this.getHeight());
+        if (! hasValidSignature) {
+            byte[] data = zeroSignature(getBytes());
+            if (! Crypto.verify(signature, data, senderPublicKey, useNQT())) {
+                return false;
+            }
+            hasValidSignature = true;
+        }
+        return account.setOrVerify(senderPublicKey, this.getHeight());
+    }
+
+    // checks the signature against the sender public key only, without looking up the sender account
+    void preVerifySignature() {
+        if (signature != null && ! hasValidSignature) {
+            hasValidSignature = Crypto.verify(signature, zeroSignature(getBytes()), senderPublicKey, useNQT());
+        }
+    }
+
+    boolean hasValidSignature() {
+        return hasValidSignature;
     }
 
     int getSize() {
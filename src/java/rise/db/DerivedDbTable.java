@@ -19,6 +19,10 @@ public abstract class DerivedDbTable {
         Rise.getBlockchainProcessor().registerDerivedTable(this);
     }
 
+    public final String getTable() {
+        return table;
+    }
+
     public void rollback(int height) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
@@ -6,22 +6,52 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class EntityDbTable<T> extends DerivedDbTable {
 
+    private static final class CachedEntity {
+
+        private final Object entity;
+        // the height when the entity was last committed, its latest row is at this height or below
+        private final int height;
+
+        private CachedEntity(Object entity, int height) {
+            this.entity = entity;
+            this.height = height;
+        }
+
+    }
+
     private final boolean multiversion;
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
+    // committed entities kept between transactions, least recently used first, null if not enabled for this table
+    private final Map<DbKey, CachedEntity> entityCache;
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        this(table, dbKeyFactory, false);
+        this(table, dbKeyFactory, false, 0);
     }
 
-    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion) {
+    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion, final int entityCacheSize) {
         super(table);
         this.dbKeyFactory = dbKeyFactory;
         this.multiversion = multiversion;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC ");
+        if (entityCacheSize > 0) {
+            this.entityCache = new LinkedHashMap<DbKey, CachedEntity>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DbKey, CachedEntity> eldest) {
+                    return size() > entityCacheSize;
+                }
+            };
+            db.addEntityCacheTable(this);
+        } else {
+            this.entityCache = null;
+        }
     }
 
     protected abstract T load(Connection con, ResultSet rs) throws SQLException;
@@ -44,6 +74,16 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             if (t != null) {
                 return t;
             }
+            if (useEntityCache()) {
+                synchronized (entityCache) {
+                    CachedEntity cachedEntity = entityCache.get(dbKey);
+                    t = cachedEntity == null ? null : (T) cachedEntity.entity;
+                }
+                if (t != null) {
+                    db.getCache(table).put(dbKey, t);
+                    return t;
+                }
+            }
         }
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
@@ -57,6 +97,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final T get(DbKey dbKey, int height) {
         checkAvailable(height);
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
                      + " AND height <= ?" + (multiversion ? " AND (latest = TRUE OR EXISTS ("
@@ -74,6 +115,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final T getBy(DbClause dbClause) {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table
                      + " WHERE " + dbClause.getClause() + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
@@ -86,6 +128,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final T getBy(DbClause dbClause, int height) {
         checkAvailable(height);
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE " + dbClause.getClause()
                      + " AND height <= ?" + (multiversion ? " AND (latest = TRUE OR EXISTS ("
@@ -181,6 +224,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final DbIterator<T> getManyBy(Connection con, PreparedStatement pstmt, boolean cache) {
+        flushPendingWrites();
         final boolean doCache = cache && db.isInTransaction();
         return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<T>() {
             @Override
@@ -271,6 +315,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final int getCount() {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
                      + (multiversion ? " WHERE latest = TRUE" : ""))) {
@@ -281,6 +326,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final int getCount(DbClause dbClause) {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
                      + " WHERE " + dbClause.getClause() + (multiversion ? " AND latest = TRUE" : ""))) {
@@ -293,6 +339,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final int getCount(DbClause dbClause, int height) {
         checkAvailable(height);
+        flushPendingWrites();
         Connection con = null;
         try {
             con = db.getConnection();
@@ -317,6 +364,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final int getRowCount() {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table)) {
             return getCount(pstmt);
@@ -332,6 +380,11 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    /**
+     * Saves the entity, which must be the instance cached in the current transaction. For versioned tables the row is
+     * only written when the transaction commits, or before this table is next queried, so an entity changed several
+     * times in a block is written once.
+     */
     public final void insert(T t) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
@@ -344,30 +397,116 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             throw new IllegalStateException("Different instance found in Db cache, perhaps trying to save an object "
                     + "that was read outside the current transaction");
         }
+        uncache(dbKey);
+        if (multiversion) {
+            db.addPendingWrite(this, dbKey);
+            return;
+        }
         try (Connection con = db.getConnection()) {
-            if (multiversion) {
-                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
-                    dbKey.setPK(pstmt);
-                    pstmt.executeUpdate();
-                }
-            }
             save(con, t);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
     }
 
+    final void write(Set<DbKey> dbKeys) {
+        Map<DbKey,Object> cache = db.getCache(table);
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
+                     + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
+            for (DbKey dbKey : dbKeys) {
+                dbKey.setPK(pstmt);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            for (DbKey dbKey : dbKeys) {
+                save(con, (T) cache.get(dbKey));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    // queries other than by key must see the entities inserted in this transaction
+    final void flushPendingWrites() {
+        if (multiversion && db.isInTransaction()) {
+            db.flushPendingWrites(this);
+        }
+    }
+
+    /*
+     * The entity cache is only used by transactions holding the blockchain lock, such as block application, so that an
+     * entity instance is never shared by two threads: it is handed to the transaction cache, and put back with its
+     * changes once they are committed. The entities of a transaction that is rolled back, or ended with entities
+     * handed out since its last commit, are evicted. As with the transaction cache, every change to an entity must be
+     * saved with insert before the commit.
+     */
+    private boolean useEntityCache() {
+        return entityCache != null && Thread.holdsLock(Rise.getBlockchain());
+    }
+
+    final void cacheCommitted(Map<DbKey,Object> transactionCache) {
+        if (!useEntityCache()) {
+            return;
+        }
+        int height = Rise.getBlockchain().getHeight();
+        synchronized (entityCache) {
+            for (Map.Entry<DbKey,Object> entry : transactionCache.entrySet()) {
+                entityCache.put(entry.getKey(), new CachedEntity(entry.getValue(), height));
+            }
+        }
+    }
+
+    final void uncache(Set<DbKey> dbKeys) {
+        if (entityCache != null) {
+            synchronized (entityCache) {
+                entityCache.keySet().removeAll(dbKeys);
+            }
+        }
+    }
+
+    final void uncache(DbKey dbKey) {
+        if (entityCache != null) {
+            synchronized (entityCache) {
+                entityCache.remove(dbKey);
+            }
+        }
+    }
+
+    // the rows of entities last committed at or below height are not changed by the rollback
+    final void uncacheAbove(int height) {
+        if (entityCache != null) {
+            synchronized (entityCache) {
+                Iterator<CachedEntity> iterator = entityCache.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().height > height) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void rollback(int height) {
+        flushPendingWrites();
         super.rollback(height);
         db.getCache(table).clear();
+        uncacheAbove(height);
     }
 
     @Override
     public final void truncate() {
+        if (db.isInTransaction()) {
+            db.discardPendingWrites(this);
+        }
         super.truncate();
         db.getCache(table).clear();
+        if (entityCache != null) {
+            synchronized (entityCache) {
+                entityCache.clear();
+            }
+        }
     }
 
 }
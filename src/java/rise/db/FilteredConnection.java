@@ -8,6 +8,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -15,16 +16,46 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class FilteredConnection implements Connection {
 
+    private static final AtomicLong statementsPrepared = new AtomicLong();
+    private static final AtomicLong statementsReused = new AtomicLong();
+
+    public static long getStatementsPrepared() {
+        return statementsPrepared.get();
+    }
+
+    public static long getStatementsReused() {
+        return statementsReused.get();
+    }
+
     private final Connection con;
+    // statements by SQL text, least recently used first, kept open until evicted or the connection is closed
+    private final Map<String, CachedStatement> statementCache;
 
     public FilteredConnection(Connection con) {
+        this(con, 0);
+    }
+
+    public FilteredConnection(Connection con, final int statementCacheSize) {
         this.con = con;
+        this.statementCache = statementCacheSize <= 0 ? null : new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 
     @Override
@@ -32,9 +63,32 @@ public class FilteredConnection implements Connection {
         return con.createStatement();
     }
 
+    /**
+     * If this connection caches statements, a statement closed by the caller is kept open and returned again when the
+     * same SQL is next prepared, so that H2 does not parse it again. A statement still in use is not shared, a new one
+     * is prepared instead.
+     */
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return con.prepareStatement(sql);
+        if (statementCache == null) {
+            statementsPrepared.incrementAndGet();
+            return con.prepareStatement(sql);
+        }
+        CachedStatement cachedStatement = statementCache.get(sql);
+        if (cachedStatement != null) {
+            if (!cachedStatement.inUse) {
+                statementsReused.incrementAndGet();
+                cachedStatement.inUse = true;
+                return cachedStatement;
+            }
+            statementsPrepared.incrementAndGet();
+            return con.prepareStatement(sql);
+        }
+        statementsPrepared.incrementAndGet();
+        cachedStatement = new CachedStatement(sql, con.prepareStatement(sql));
+        cachedStatement.inUse = true;
+        statementCache.put(sql, cachedStatement);
+        return cachedStatement;
     }
 
     @Override
@@ -69,6 +123,12 @@ public class FilteredConnection implements Connection {
 
     @Override
     public void close() throws SQLException {
+        if (statementCache != null) {
+            for (CachedStatement cachedStatement : new ArrayList<>(statementCache.values())) {
+                cachedStatement.evict();
+            }
+            statementCache.clear();
+        }
         con.close();
     }
 
@@ -296,4 +356,50 @@ public class FilteredConnection implements Connection {
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
         return con.isWrapperFor(iface);
     }
+
+    private final class CachedStatement extends FilteredPreparedStatement {
+
+        private final String sql;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(String sql, PreparedStatement pstmt) {
+            super(pstmt);
+            this.sql = sql;
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    super.close();
+                } catch (SQLException ignore) {}
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            if (evicted) {
+                super.close();
+                return;
+            }
+            try {
+                ResultSet rs = getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+                clearParameters();
+                clearBatch();
+            } catch (SQLException e) {
+                statementCache.remove(sql);
+                super.close();
+                throw e;
+            }
+        }
+
+    }
 }
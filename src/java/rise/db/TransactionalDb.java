@@ -2,13 +2,22 @@ package rise.db;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TransactionalDb extends BasicDb {
 
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
     private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
+    // keys of the entities inserted into versioned tables and not yet written, by table in the order first written to
+    private final ThreadLocal<Map<EntityDbTable<?>,Set<DbKey>>> pendingWrites = new ThreadLocal<>();
+    private final List<EntityDbTable<?>> entityCacheTables = new CopyOnWriteArrayList<>();
 
     public TransactionalDb(DbProperties dbProperties) {
         super(dbProperties);
@@ -20,7 +29,7 @@ public class TransactionalDb extends BasicDb {
         if (con != null) {
             return con;
         }
-        return new DbConnection(super.getConnection());
+        return new DbConnection(super.getConnection(), 0);
     }
 
     public boolean isInTransaction() {
@@ -34,9 +43,10 @@ public class TransactionalDb extends BasicDb {
         try {
             Connection con = getPooledConnection();
             con.setAutoCommit(false);
-            con = new DbConnection(con);
+            con = new DbConnection(con, getStatementCacheSize());
             localConnection.set((DbConnection)con);
             transactionCaches.set(new HashMap<String, Map<DbKey, Object>>());
+            pendingWrites.set(new LinkedHashMap<EntityDbTable<?>, Set<DbKey>>());
             return con;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -49,10 +59,18 @@ public class TransactionalDb extends BasicDb {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            flushPendingWrites();
             con.doCommit();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
+        for (EntityDbTable<?> table : entityCacheTables) {
+            Map<DbKey,Object> cacheMap = transactionCaches.get().get(table.getTable());
+            if (cacheMap != null) {
+                table.cacheCommitted(cacheMap);
+            }
+        }
+        con.committed = true;
     }
 
     public void rollbackTransaction() {
@@ -64,25 +82,83 @@ public class TransactionalDb extends BasicDb {
             con.doRollback();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
+        } finally {
+            uncacheTransactionEntities();
         }
         transactionCaches.get().clear();
+        pendingWrites.get().clear();
     }
 
     public void endTransaction() {
-        Connection con = localConnection.get();
+        DbConnection con = localConnection.get();
         if (con == null) {
             throw new IllegalStateException("Not in transaction");
         }
+        if (!con.committed) {
+            uncacheTransactionEntities();
+        }
         localConnection.set(null);
         transactionCaches.get().clear();
         transactionCaches.set(null);
+        pendingWrites.get().clear();
+        pendingWrites.set(null);
         DbUtils.close(con);
     }
 
-    Map<DbKey,Object> getCache(String tableName) {
+    /**
+     * Writes the entities inserted into versioned tables since the last flush, one row per entity. Rows are saved at
+     * the current height, so this is also needed before the height changes within a transaction.
+     */
+    public void flushPendingWrites() {
         if (!isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        for (EntityDbTable<?> table : new ArrayList<>(pendingWrites.get().keySet())) {
+            flushPendingWrites(table);
+        }
+    }
+
+    void flushPendingWrites(EntityDbTable<?> table) {
+        Set<DbKey> dbKeys = pendingWrites.get().remove(table);
+        if (dbKeys != null) {
+            table.write(dbKeys);
+        }
+    }
+
+    void discardPendingWrites(EntityDbTable<?> table) {
+        pendingWrites.get().remove(table);
+    }
+
+    void addEntityCacheTable(EntityDbTable<?> table) {
+        entityCacheTables.add(table);
+    }
+
+    // the entities of the transaction cache may have uncommitted changes
+    private void uncacheTransactionEntities() {
+        for (EntityDbTable<?> table : entityCacheTables) {
+            Map<DbKey,Object> cacheMap = transactionCaches.get().get(table.getTable());
+            if (cacheMap != null) {
+                table.uncache(cacheMap.keySet());
+            }
+        }
+    }
+
+    void addPendingWrite(EntityDbTable<?> table, DbKey dbKey) {
+        Set<DbKey> dbKeys = pendingWrites.get().get(table);
+        if (dbKeys == null) {
+            dbKeys = new LinkedHashSet<>();
+            pendingWrites.get().put(table, dbKeys);
+        }
+        dbKeys.add(dbKey);
+    }
+
+    Map<DbKey,Object> getCache(String tableName) {
+        DbConnection con = localConnection.get();
+        if (con == null) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        // entities handed out after the last commit may still be changed
+        con.committed = false;
         Map<DbKey,Object> cacheMap = transactionCaches.get().get(tableName);
         if (cacheMap == null) {
             cacheMap = new HashMap<>();
@@ -93,8 +169,10 @@ public class TransactionalDb extends BasicDb {
 
     private final class DbConnection extends FilteredConnection {
 
-        private DbConnection(Connection con) {
-            super(con);
+        private boolean committed;
+
+        private DbConnection(Connection con, int statementCacheSize) {
+            super(con, statementCacheSize);
         }
 
         @Override
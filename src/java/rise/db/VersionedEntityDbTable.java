@@ -13,12 +13,22 @@ import java.util.List;
 public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
 
     protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        super(table, dbKeyFactory, true);
+        this(table, dbKeyFactory, 0);
+    }
+
+    /**
+     * Keeps up to entityCacheSize committed entities in memory between transactions, so that block application does
+     * not read the same entities from the database for every block.
+     */
+    protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, int entityCacheSize) {
+        super(table, dbKeyFactory, true, entityCacheSize);
     }
 
     @Override
     public void rollback(int height) {
+        flushPendingWrites();
         rollback(db, table, height, dbKeyFactory);
+        uncacheAbove(height);
     }
 
     public final boolean delete(T t) {
@@ -28,6 +38,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        flushPendingWrites();
         DbKey dbKey = dbKeyFactory.newKey(t);
         try (Connection con = db.getConnection();
              PreparedStatement pstmtCount = con.prepareStatement("SELECT COUNT(*) AS count FROM " + table + dbKeyFactory.getPKClause()
@@ -56,11 +67,13 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             throw new RuntimeException(e.toString(), e);
         } finally {
             db.getCache(table).remove(dbKey);
+            uncache(dbKey);
         }
     }
 
     @Override
     public final void trim(int height) {
+        flushPendingWrites();
         trim(db, table, height, dbKeyFactory);
     }
 
@@ -116,6 +116,10 @@ public final class API {
                 gzipFilterHolder.setAsyncSupported(true);
             }
 
+            ServletHolder miningInfoServletHolder = apiHandler.addServlet(MiningInfoServlet.class, "/mininginfo");
+            miningInfoServletHolder.setAsyncSupported(true);
+            MiningInfoServlet.enable();
+
             apiHandler.addServlet(APITestServlet.class, "/test");
             if (enableDebugAPI) {
                 apiHandler.addServlet(DbShellServlet.class, "/dbshell");
@@ -163,6 +167,7 @@ public final class API {
             } catch (Exception e) {
                 Logger.logShutdownMessage("Failed to stop API server", e);
             }
+            MiningInfoServlet.shutdown();
         }
     }
 
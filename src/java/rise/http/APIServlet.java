@@ -176,13 +176,17 @@ public final class APIServlet extends HttpServlet {
         
         map.put("getMiningInfo", GetMiningInfo.instance);
         map.put("submitNonce", SubmitNonce.instance);
+        map.put("submitNonces", SubmitNonces.instance);
+        map.put("getNonceQueueStatus", GetNonceQueueStatus.instance);
         map.put("getRewardRecipient", GetRewardRecipient.instance);
         map.put("setRewardRecipient", SetRewardRecipient.instance);
         map.put("getAccountsWithRewardRecipient", GetAccountsWithRewardRecipient.instance);
 
         if (API.enableDebugAPI) {
             map.put("clearUnconfirmedTransactions", ClearUnconfirmedTransactions.instance);
+            map.put("exportSnapshot", ExportSnapshot.instance);
             map.put("fullReset", FullReset.instance);
+            map.put("getForgingSchedule", GetForgingSchedule.instance);
             map.put("popOff", PopOff.instance);
             map.put("scan", Scan.instance);
             map.put("luceneReindex", LuceneReindex.instance);
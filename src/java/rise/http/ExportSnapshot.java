@@ -0,0 +1,46 @@
+package rise.http;
+
+import rise.Rise;
+import rise.StateSnapshot;
+import rise.util.Convert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+public final class ExportSnapshot extends APIServlet.APIRequestHandler {
+
+    static final ExportSnapshot instance = new ExportSnapshot();
+
+    private ExportSnapshot() {
+        super(new APITag[] {APITag.DEBUG}, "height");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONObject response = new JSONObject();
+        try {
+            int height = Rise.getBlockchain().getHeight();
+            try {
+                height = Integer.parseInt(req.getParameter("height"));
+            } catch (NumberFormatException ignore) {}
+            long start = System.currentTimeMillis();
+            StateSnapshot snapshot = StateSnapshot.export(height);
+            response.put("file", snapshot.getFile().getAbsolutePath());
+            response.put("height", snapshot.getHeight());
+            response.put("block", Convert.toUnsignedLong(snapshot.getBlockId()));
+            response.put("hash", Convert.toHexString(snapshot.getHash()));
+            response.put("size", snapshot.getFile().length());
+            response.put("exportTime", (System.currentTimeMillis() - start) / 1000);
+        } catch (RuntimeException e) {
+            response.put("error", e.toString());
+        }
+        return response;
+    }
+
+    @Override
+    final boolean requirePost() {
+        return true;
+    }
+
+}
@@ -0,0 +1,52 @@
+package rise.http;
+
+import rise.Generator;
+import rise.Rise;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Lists every account this node forges for with its next forge time. That ties the accounts to this node, so unlike
+ * getForging, which needs the account's secret phrase, it is only available with the debug API.
+ */
+public final class GetForgingSchedule extends APIServlet.APIRequestHandler {
+
+    static final GetForgingSchedule instance = new GetForgingSchedule();
+
+    private GetForgingSchedule() {
+        super(new APITag[] {APITag.FORGING, APITag.DEBUG});
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        int timestamp = Rise.getEpochTime();
+        JSONArray generators = new JSONArray();
+        for (Generator generator : Generator.getSortedForgers()) {
+            JSONObject json = new JSONObject();
+            JSONData.putAccount(json, "account", generator.getAccountId());
+            json.put("deadline", generator.getDeadline());
+            json.put("hitTime", generator.getHitTime());
+            // a block can first be forged in the second after the hit time
+            long forgeTime = generator.getHitTime() + 1;
+            json.put("forgeTime", forgeTime);
+            json.put("remaining", Math.max(forgeTime - timestamp, 0));
+            generators.add(json);
+        }
+        JSONObject response = new JSONObject();
+        response.put("timestamp", timestamp);
+        response.put("lastBlock", Rise.getBlockchain().getLastBlock().getStringId());
+        response.put("generators", generators);
+        return response;
+
+    }
+
+    @Override
+    boolean requirePost() {
+        return true;
+    }
+
+}
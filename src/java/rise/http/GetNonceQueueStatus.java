@@ -0,0 +1,34 @@
+package rise.http;
+
+import javax.servlet.http.HttpServletRequest;
+
+import rise.NonceProcessor;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+public final class GetNonceQueueStatus extends APIServlet.APIRequestHandler {
+	static final GetNonceQueueStatus instance = new GetNonceQueueStatus();
+	
+	private GetNonceQueueStatus() {
+		super(new APITag[] {APITag.MINING, APITag.INFO});
+	}
+	
+	@Override
+	JSONStreamAware processRequest(HttpServletRequest req) {
+		JSONObject response = new JSONObject();
+		
+		response.put("queueDepth", NonceProcessor.getQueueDepth());
+		response.put("queueCapacity", NonceProcessor.getQueueCapacity());
+		response.put("inFlight", NonceProcessor.getInFlightCount());
+		response.put("processed", NonceProcessor.getProcessedCount());
+		response.put("rejected", NonceProcessor.getRejectedCount());
+		response.put("dropped", NonceProcessor.getDroppedCount());
+		response.put("deduplicated", NonceProcessor.getDeduplicatedCount());
+		response.put("latencyP50", NonceProcessor.getLatencyPercentile(50));
+		response.put("latencyP90", NonceProcessor.getLatencyPercentile(90));
+		response.put("latencyP99", NonceProcessor.getLatencyPercentile(99));
+		
+		return response;
+	}
+}
@@ -4,14 +4,17 @@ import rise.Account;
 import rise.Alias;
 import rise.Asset;
 import rise.AssetTransfer;
+import rise.BlockCache;
 import rise.Constants;
 import rise.db.DbIterator;
+import rise.db.FilteredConnection;
 import rise.Generator;
 import rise.Rise;
 import rise.Order;
 import rise.Trade;
 import rise.peer.Peer;
 import rise.peer.Peers;
+import rise.util.ScoopCache;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -71,6 +74,19 @@ public final class GetState extends APIServlet.APIRequestHandler {
         response.put("lastBlockchainFeeder", lastBlockchainFeeder == null ? null : lastBlockchainFeeder.getAnnouncedAddress());
         response.put("lastBlockchainFeederHeight", Rise.getBlockchainProcessor().getLastBlockchainFeederHeight());
         response.put("isScanning", Rise.getBlockchainProcessor().isScanning());
+        response.put("lastBlockDownloadRate", Rise.getBlockchainProcessor().getLastDownloadRate());
+        response.put("lastScanRate", Rise.getBlockchainProcessor().getLastScanRate());
+        response.put("scoopCacheHits", ScoopCache.getHits());
+        response.put("scoopCacheMisses", ScoopCache.getMisses());
+        response.put("scoopCacheSize", ScoopCache.getSize());
+        response.put("blockCacheHits", BlockCache.getHits());
+        response.put("blockCacheMisses", BlockCache.getMisses());
+        response.put("blockCacheSize", BlockCache.getSize());
+        response.put("dbStatementsPrepared", FilteredConnection.getStatementsPrepared());
+        response.put("dbStatementsReused", FilteredConnection.getStatementsReused());
+        response.put("lastForgerRankingTime", Generator.getLastRankingTime());
+        response.put("forgerRankingTimeP50", Generator.getRankingTimePercentile(50));
+        response.put("forgerRankingTimeP99", Generator.getRankingTimePercentile(99));
         response.put("availableProcessors", Runtime.getRuntime().availableProcessors());
         response.put("maxMemory", Runtime.getRuntime().maxMemory());
         response.put("totalMemory", Runtime.getRuntime().totalMemory());
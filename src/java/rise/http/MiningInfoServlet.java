@@ -0,0 +1,254 @@
+package rise.http;
+
+import rise.Block;
+import rise.BlockchainProcessor;
+import rise.MiningContext;
+import rise.Rise;
+import rise.util.Convert;
+import rise.util.Listener;
+import rise.util.Logger;
+import rise.util.ThreadPool;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static rise.http.JSONResponses.ERROR_NOT_ALLOWED;
+
+/**
+ * Pushes new mining rounds to miners instead of having them poll getMiningInfo.
+ * <p>
+ * A plain request is a long poll: it returns the mining info as soon as the generation signature differs from the
+ * generationSignature parameter (or, without it, as soon as the next round starts), or the current mining info after
+ * rise.miningInfoLongPollTimeout seconds. A request with stream=true, or accepting text/event-stream, receives a
+ * server-sent event with the mining info of every new round until the client disconnects.
+ */
+public final class MiningInfoServlet extends HttpServlet {
+
+    private static final long longPollTimeout = Math.max(Rise.getIntProperty("rise.miningInfoLongPollTimeout"), 1) * 1000L;
+
+    private static final Set<AsyncContext> waitingPolls = Collections.newSetFromMap(new ConcurrentHashMap<AsyncContext, Boolean>());
+    private static final Set<AsyncContext> streams = Collections.newSetFromMap(new ConcurrentHashMap<AsyncContext, Boolean>());
+
+    // responses are written here, so slow miners never hold up block processing
+    private static final ExecutorService notifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "MiningInfoNotifier");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static volatile MiningContext notifiedContext;
+
+    static {
+        Listener<Block> roundListener = new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                final MiningContext context = Rise.getBlockchain().getMiningContext();
+                if (context == null || context == notifiedContext) {
+                    return;
+                }
+                notifiedContext = context;
+                notifier.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        newRound(context);
+                    }
+                });
+            }
+        };
+        Rise.getBlockchainProcessor().addListener(roundListener, BlockchainProcessor.Event.BLOCK_PUSHED);
+        Rise.getBlockchainProcessor().addListener(roundListener, BlockchainProcessor.Event.BLOCK_POPPED);
+
+        // an idle event stream would otherwise be closed by the connector idle timeout
+        ThreadPool.scheduleThread("MiningInfoKeepAlive", new Runnable() {
+            @Override
+            public void run() {
+                if (streams.isEmpty()) {
+                    return;
+                }
+                notifier.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (AsyncContext stream : streams) {
+                            send(stream, ":\n\n");
+                        }
+                    }
+                });
+            }
+        }, 15);
+    }
+
+    static void enable() {}
+
+    static void shutdown() {
+        ThreadPool.shutdownExecutor(notifier);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setHeader("Cache-Control", "no-cache, no-store, must-revalidate, private");
+        resp.setHeader("Pragma", "no-cache");
+        resp.setDateHeader("Expires", 0);
+
+        if (API.allowedBotHosts != null && ! API.allowedBotHosts.contains(req.getRemoteHost())) {
+            resp.setContentType("text/plain; charset=UTF-8");
+            try (Writer writer = resp.getWriter()) {
+                ERROR_NOT_ALLOWED.writeJSONString(writer);
+            }
+            return;
+        }
+
+        String accept = req.getHeader("Accept");
+        if ("true".equalsIgnoreCase(req.getParameter("stream")) || (accept != null && accept.contains("text/event-stream"))) {
+            openStream(req, resp);
+        } else {
+            longPoll(req, resp);
+        }
+    }
+
+    private void longPoll(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain; charset=UTF-8");
+        byte[] knownGenerationSignature = Convert.parseHexString(Convert.emptyToNull(req.getParameter("generationSignature")));
+        MiningContext context = Rise.getBlockchain().getMiningContext();
+        if (isNewRound(context, knownGenerationSignature)) {
+            try (Writer writer = resp.getWriter()) {
+                context.getMiningInfo().writeJSONString(writer);
+            }
+            return;
+        }
+        final AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(longPollTimeout);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                complete(asyncContext, Rise.getBlockchain().getMiningContext());
+            }
+            @Override
+            public void onError(AsyncEvent event) {
+                waitingPolls.remove(asyncContext);
+            }
+            @Override
+            public void onComplete(AsyncEvent event) {}
+            @Override
+            public void onStartAsync(AsyncEvent event) {}
+        });
+        waitingPolls.add(asyncContext);
+        // the round may have changed between the check above and registering
+        MiningContext currentContext = Rise.getBlockchain().getMiningContext();
+        if (currentContext != null && currentContext != context) {
+            complete(asyncContext, currentContext);
+        }
+    }
+
+    private void openStream(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/event-stream; charset=UTF-8");
+        final AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(0);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                streams.remove(asyncContext);
+            }
+            @Override
+            public void onError(AsyncEvent event) {
+                streams.remove(asyncContext);
+            }
+            @Override
+            public void onComplete(AsyncEvent event) {
+                streams.remove(asyncContext);
+            }
+            @Override
+            public void onStartAsync(AsyncEvent event) {}
+        });
+        streams.add(asyncContext);
+        final MiningContext context = Rise.getBlockchain().getMiningContext();
+        if (context != null) {
+            notifier.submit(new Runnable() {
+                @Override
+                public void run() {
+                    send(asyncContext, event(context));
+                }
+            });
+        }
+    }
+
+    private static boolean isNewRound(MiningContext context, byte[] knownGenerationSignature) {
+        return context != null && knownGenerationSignature != null
+                && ! Arrays.equals(context.getGenerationSignature(), knownGenerationSignature);
+    }
+
+    private static void newRound(MiningContext context) {
+        for (AsyncContext asyncContext : waitingPolls) {
+            complete(asyncContext, context);
+        }
+        if (streams.isEmpty()) {
+            return;
+        }
+        String event = event(context);
+        for (AsyncContext stream : streams) {
+            send(stream, event);
+        }
+    }
+
+    // only the caller that removes the poll from waitingPolls answers it
+    private static void complete(AsyncContext asyncContext, MiningContext context) {
+        if (! waitingPolls.remove(asyncContext)) {
+            return;
+        }
+        try {
+            if (context != null) {
+                Writer writer = asyncContext.getResponse().getWriter();
+                context.getMiningInfo().writeJSONString(writer);
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.logDebugMessage("Failed to answer mining info long poll: " + e.toString());
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    private static void send(AsyncContext stream, String data) {
+        if (! streams.contains(stream)) {
+            return;
+        }
+        try {
+            Writer writer = stream.getResponse().getWriter();
+            writer.write(data);
+            writer.flush();
+            stream.getResponse().flushBuffer();
+        } catch (IOException | RuntimeException e) {
+            streams.remove(stream);
+            try {
+                stream.complete();
+            } catch (RuntimeException ignore) {}
+        }
+    }
+
+    private static String event(MiningContext context) {
+        StringWriter data = new StringWriter();
+        try {
+            context.getMiningInfo().writeJSONString(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return "event: round\ndata: " + data + "\n\n";
+    }
+
+}
@@ -1,15 +1,22 @@
 package rise.http;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.http.HttpServletRequest;
 
 import rise.Account;
 import rise.Block;
 import rise.MineGenerator;
+import rise.NonceProcessor;
 import rise.Rise;
 import rise.crypto.Crypto;
 import rise.util.Convert;
+import rise.util.Logger;
 import fr.cryptohash.Shabal256;
 
 import org.json.simple.JSONObject;
@@ -77,28 +84,57 @@ public final class SubmitNonce extends APIServlet.APIRequestHandler {
 			}
 		}
 		
-		MineGenerator generator;
+		byte[] publicKey;
 		if(accountId == null || secretAccount == null) {
-			generator = MineGenerator.addNonce(secret, nonce);
+			publicKey = secretPublicKey;
 		}
 		else {
 			Account genAccount = Account.getAccount(Convert.parseUnsignedLong(accountId));
 			if(genAccount == null ||
 			   genAccount.getPublicKey() == null) {
 				response.put("result", "Passthrough mining requires public key in blockchain");
+				return response;
 			}
-			byte[] publicKey = genAccount.getPublicKey();
-			generator = MineGenerator.addNonce(secret, nonce, publicKey);
+			publicKey = genAccount.getPublicKey();
 		}
 		
-		if(generator == null) {
+		Future<MineGenerator> pending = NonceProcessor.submit(secret, nonce, publicKey);
+		if(pending == null) {
+			response.put("result", "Nonce queue full");
+			return response;
+		}
+		
+		MineGenerator generator;
+		try {
+			generator = pending.get(NonceProcessor.getResultTimeout(), TimeUnit.MILLISECONDS);
+		}
+		catch(CancellationException e) {
+			response.put("result", "Nonce queue full");
+			return response;
+		}
+		catch(TimeoutException e) {
+			response.put("result", "Nonce still queued, deadline not calculated yet");
+			return response;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			response.put("result", "failed to create generator");
+			return response;
+		}
+		catch(ExecutionException e) {
+			Logger.logDebugMessage("Error processing nonce", e);
 			response.put("result", "failed to create generator");
 			return response;
 		}
 		
+		if(generator == null) {
+			response.put("result", "Nonce dropped, cannot improve current deadline");
+			return response;
+		}
+		
 		//response.put("result", "deadline: " + generator.getDeadline());
 		response.put("result", "success");
-		response.put("deadline", generator.getDeadline());
+		response.put("deadline", Convert.toUnsignedNumber(generator.getDeadline()));
 		
 		return response;
 	}
@@ -0,0 +1,221 @@
+package rise.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import rise.Account;
+import rise.MineGenerator;
+import rise.NonceProcessor;
+import rise.Rise;
+import rise.crypto.Crypto;
+import rise.util.Convert;
+import rise.util.Logger;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import static rise.http.JSONResponses.MISSING_SECRET_PHRASE;
+
+public final class SubmitNonces extends APIServlet.APIRequestHandler {
+	static final SubmitNonces instance = new SubmitNonces();
+
+	private SubmitNonces() {
+		super(new APITag[] {APITag.MINING}, "secretPhrase", "nonces", "nonces", "nonces");
+	}
+
+	@Override
+	JSONStreamAware processRequest(HttpServletRequest req) {
+		String secret = req.getParameter("secretPhrase");
+		String[] nonces = req.getParameterValues("nonces");
+
+		if(secret == null) {
+			return MISSING_SECRET_PHRASE;
+		}
+
+		JSONObject response = new JSONObject();
+		if(nonces == null) {
+			response.put("result", "Missing Nonces");
+			return response;
+		}
+
+		// validate the whole batch before queuing anything
+		List<Long> accountIds = new ArrayList<>();
+		List<Long> nonceValues = new ArrayList<>();
+		for(String value : nonces) {
+			if(value == null || value.isEmpty()) {
+				continue;
+			}
+			int separator = value.indexOf(':');
+			long accountId = 0;
+			long nonce = 0;
+			try {
+				if(separator > 0) {
+					accountId = Convert.parseAccountId(value.substring(0, separator));
+					nonce = Convert.parseUnsignedLong(value.substring(separator + 1));
+				}
+			}
+			catch(RuntimeException e) {
+				accountId = 0;
+			}
+			if(accountId == 0) {
+				response.put("result", "Incorrect nonce " + value + ", expected accountId:nonce");
+				return response;
+			}
+			accountIds.add(accountId);
+			nonceValues.add(nonce);
+		}
+
+		byte[] secretPublicKey = Crypto.getPublicKey(secret);
+		long secretId = Account.getId(secretPublicKey);
+		Account secretAccount = Account.getAccount(secretId);
+		int height = Rise.getBlockchain().getLastHDDBlock().getHeight() + 1;
+
+		// resolve each account's mining public key (or the reason it can't mine) only once
+		Map<Long, Object> accountKeys = new HashMap<>();
+		List<JSONObject> results = new ArrayList<>();
+		JSONArray deadlines = new JSONArray();
+		for(int i = 0; i < accountIds.size(); i++) {
+			Long accountId = accountIds.get(i);
+			if(!accountKeys.containsKey(accountId)) {
+				accountKeys.put(accountId, resolvePublicKey(accountId, secretId, secretPublicKey, secretAccount, height));
+			}
+			JSONObject result = new JSONObject();
+			result.put("accountId", Convert.toUnsignedLong(accountId));
+			result.put("nonce", Convert.toUnsignedLong(nonceValues.get(i)));
+			results.add(result);
+			deadlines.add(result);
+		}
+
+		// keep at most a few nonces per worker queued, so that a large batch neither fills the queue itself
+		// nor keeps other miners out of it; the whole batch shares one timeout
+		int maxOutstanding = NonceProcessor.getThreadCount() * 2;
+		long timeoutAt = System.currentTimeMillis() + NonceProcessor.getResultTimeout();
+		Map<Long, JSONObject> best = new HashMap<>();
+		Map<Long, Long> bestDeadlineValues = new HashMap<>();
+		Deque<Integer> outstanding = new ArrayDeque<>();
+		List<Future<MineGenerator>> pending = new ArrayList<>();
+		for(int i = 0; i < accountIds.size(); i++) {
+			pending.add(null);
+			Object key = accountKeys.get(accountIds.get(i));
+			if(!(key instanceof byte[])) {
+				results.get(i).put("result", key);
+				continue;
+			}
+			while(outstanding.size() >= maxOutstanding) {
+				int j = outstanding.removeFirst();
+				collect(pending.get(j), accountIds.get(j), results.get(j), timeoutAt, best, bestDeadlineValues);
+			}
+			if(System.currentTimeMillis() >= timeoutAt) {
+				results.get(i).put("result", "Nonce not queued, request timed out");
+				continue;
+			}
+			Future<MineGenerator> future = NonceProcessor.submit(secret, nonceValues.get(i), (byte[])key);
+			if(future == null) {
+				results.get(i).put("result", "Nonce queue full");
+				continue;
+			}
+			pending.set(i, future);
+			outstanding.addLast(i);
+		}
+		while(!outstanding.isEmpty()) {
+			int j = outstanding.removeFirst();
+			collect(pending.get(j), accountIds.get(j), results.get(j), timeoutAt, best, bestDeadlineValues);
+		}
+
+		JSONArray bestDeadlines = new JSONArray();
+		bestDeadlines.addAll(best.values());
+		response.put("result", "success");
+		response.put("deadlines", deadlines);
+		response.put("best", bestDeadlines);
+
+		return response;
+	}
+
+	private static void collect(Future<MineGenerator> future, Long accountId, JSONObject result, long timeoutAt,
+			Map<Long, JSONObject> best, Map<Long, Long> bestDeadlineValues) {
+		MineGenerator generator;
+		try {
+			generator = future.get(Math.max(timeoutAt - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		}
+		catch(CancellationException e) {
+			result.put("result", "Nonce queue full");
+			return;
+		}
+		catch(TimeoutException e) {
+			result.put("result", "Nonce still queued, deadline not calculated yet");
+			return;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.put("result", "failed to create generator");
+			return;
+		}
+		catch(ExecutionException e) {
+			Logger.logDebugMessage("Error processing nonce", e);
+			result.put("result", "failed to create generator");
+			return;
+		}
+		if(generator == null) {
+			result.put("result", "Nonce dropped, cannot improve current deadline");
+			return;
+		}
+		result.put("result", "success");
+		result.put("deadline", Convert.toUnsignedNumber(generator.getDeadline()));
+
+		Long bestDeadline = bestDeadlineValues.get(accountId);
+		if(bestDeadline == null || Long.compareUnsigned(generator.getDeadline(), bestDeadline) < 0) {
+			best.put(accountId, result);
+			bestDeadlineValues.put(accountId, generator.getDeadline());
+		}
+	}
+
+	// returns the public key to mine with, or the error message for this account
+	private static Object resolvePublicKey(long accountId, long secretId, byte[] secretPublicKey, Account secretAccount, int height) {
+		if(secretAccount == null) {
+			// not in the blockchain yet, so no reward recipient can have been assigned
+			return accountId == secretId ? secretPublicKey : "Passphrase is for a different account";
+		}
+		Account genAccount = accountId == secretId ? secretAccount : Account.getAccount(accountId);
+		if(genAccount == null) {
+			return "Passphrase is for a different account";
+		}
+		Account.RewardRecipientAssignment assignment = genAccount.getRewardRecipientAssignment();
+		long rewardId;
+		if(assignment == null) {
+			rewardId = genAccount.getId();
+		}
+		else if(assignment.getFromHeight() > height) {
+			rewardId = assignment.getPrevRecipientId();
+		}
+		else {
+			rewardId = assignment.getRecipientId();
+		}
+		if(rewardId != secretId) {
+			return "Passphrase does not match reward recipient";
+		}
+		if(accountId == secretId) {
+			return secretPublicKey;
+		}
+		if(genAccount.getPublicKey() == null) {
+			return "Passthrough mining requires public key in blockchain";
+		}
+		return genAccount.getPublicKey();
+	}
+
+	@Override
+    boolean requirePost() {
+        return true;
+    }
+}
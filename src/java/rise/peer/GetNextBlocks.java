@@ -26,7 +26,10 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
         List<Block> nextBlocks = new ArrayList<>();
         int totalLength = 0;
         long blockId = Convert.parseUnsignedLong((String) request.get("blockId"));
-        List<? extends Block> blocks = Rise.getBlockchain().getBlocksAfter(blockId, 1440);
+        // optional, sent by nodes downloading segments from several peers
+        Long limit = (Long) request.get("limit");
+        List<? extends Block> blocks = Rise.getBlockchain().getBlocksAfter(blockId,
+                limit == null ? 1440 : (int) Math.min(Math.max(limit, 1), 1440));
 
         for (Block block : blocks) {
             int length = Constants.BLOCK_HEADER_LENGTH + block.getPayloadLength();
@@ -548,6 +548,17 @@ public final class Peers {
         return peerList;
     }
 
+    public static List<Peer> getPeers(Peer.State state, boolean applyPullThreshold) {
+        List<Peer> selectedPeers = new ArrayList<>();
+        for (Peer peer : peers.values()) {
+            if (! peer.isBlacklisted() && peer.getState() == state && peer.shareAddress()
+                    && (!applyPullThreshold || ! Peers.enableHallmarkProtection || peer.getWeight() >= Peers.pullThreshold)) {
+                selectedPeers.add(peer);
+            }
+        }
+        return selectedPeers;
+    }
+
     public static Peer getPeer(String peerAddress) {
         return peers.get(peerAddress);
     }
@@ -700,13 +711,7 @@ public final class Peers {
 
     public static Peer getAnyPeer(Peer.State state, boolean applyPullThreshold) {
 
-        List<Peer> selectedPeers = new ArrayList<>();
-        for (Peer peer : peers.values()) {
-            if (! peer.isBlacklisted() && peer.getState() == state && peer.shareAddress()
-                    && (!applyPullThreshold || ! Peers.enableHallmarkProtection || peer.getWeight() >= Peers.pullThreshold)) {
-                selectedPeers.add(peer);
-            }
-        }
+        List<Peer> selectedPeers = getPeers(state, applyPullThreshold);
 
         if (selectedPeers.size() > 0) {
             if (! Peers.enableHallmarkProtection) {
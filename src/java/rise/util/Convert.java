@@ -57,6 +57,16 @@ public final class Convert {
         return id.toString();
     }
 
+    /**
+     * Returns the unsigned value as a JSON number, which a negative Long would not serialize as.
+     */
+    public static Number toUnsignedNumber(long value) {
+        if (value >= 0) {
+            return value;
+        }
+        return BigInteger.valueOf(value).add(two64);
+    }
+
     public static long parseUnsignedLong(String number) {
         if (number == null) {
             return 0;
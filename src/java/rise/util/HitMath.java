@@ -0,0 +1,68 @@
+package rise.util;
+
+/**
+ * Hit and deadline arithmetic on unsigned longs. A hit is the unsigned little-endian value of the first 8 bytes of a
+ * hash; the products it is compared with or divided by can exceed 64 bits, so they are evaluated as 128-bit values
+ * without allocating. All factors are expected to be non-negative, as base targets and effective balances are.
+ */
+public final class HitMath {
+
+    public static long getHit(byte[] hash) {
+        return (hash[0] & 0xFFL) | (hash[1] & 0xFFL) << 8 | (hash[2] & 0xFFL) << 16 | (hash[3] & 0xFFL) << 24
+                | (hash[4] & 0xFFL) << 32 | (hash[5] & 0xFFL) << 40 | (hash[6] & 0xFFL) << 48 | (hash[7] & 0xFFL) << 56;
+    }
+
+    /**
+     * Returns the upper 64 bits of the unsigned 128-bit product x * y.
+     */
+    public static long multiplyHigh(long x, long y) {
+        long x0 = x & 0xFFFFFFFFL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long t = x1 * y0 + ((x0 * y0) >>> 32);
+        long w1 = x0 * y1 + (t & 0xFFFFFFFFL);
+        return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    /**
+     * Returns true if the unsigned hit is less than a * b * c.
+     */
+    public static boolean isLess(long hit, long a, long b, long c) {
+        if (a == 0 || b == 0 || c == 0) {
+            return false;
+        }
+        if (multiplyHigh(a, b) != 0) {
+            return true;
+        }
+        long ab = a * b;
+        if (multiplyHigh(ab, c) != 0) {
+            return true;
+        }
+        return Long.compareUnsigned(hit, ab * c) < 0;
+    }
+
+    /**
+     * Returns the unsigned quotient hit / (a * b), throwing ArithmeticException if the divisor is zero.
+     */
+    public static long divide(long hit, long a, long b) {
+        if (multiplyHigh(a, b) != 0) {
+            return 0;
+        }
+        return Long.divideUnsigned(hit, a * b);
+    }
+
+    /**
+     * Compares the unsigned 128-bit products a1 * b1 and a2 * b2.
+     */
+    public static int compareProducts(long a1, long b1, long a2, long b2) {
+        int i = Long.compareUnsigned(multiplyHigh(a1, b1), multiplyHigh(a2, b2));
+        if (i != 0) {
+            return i;
+        }
+        return Long.compareUnsigned(a1 * b1, a2 * b2);
+    }
+
+    private HitMath() {} // never
+
+}
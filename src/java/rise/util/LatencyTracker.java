@@ -0,0 +1,42 @@
+package rise.util;
+
+import java.util.Arrays;
+
+public final class LatencyTracker {
+
+    private final long[] samples;
+    private int next;
+    private long count;
+
+    public LatencyTracker(int window) {
+        samples = new long[window];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile (0-100) over the most recent samples, or 0 if nothing was recorded yet.
+     */
+    public long getPercentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            int size = (int)Math.min(count, samples.length);
+            if (size == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+        int index = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+    }
+
+}
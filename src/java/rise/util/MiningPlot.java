@@ -1,7 +1,5 @@
 package rise.util;
 
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import fr.cryptohash.Shabal256;
@@ -15,19 +13,117 @@ public class MiningPlot {
 	
 	public static int HASH_CAP = 4096;
 	
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+	
+	private static final ThreadLocal<BatchScratch> batchScratch = new ThreadLocal<BatchScratch>() {
+		@Override
+		protected BatchScratch initialValue() {
+			return new BatchScratch();
+		}
+	};
+	
 	public byte[] data = new byte[PLOT_SIZE];
 	
 	public MiningPlot(long addr, long nonce) {
-		ByteBuffer base_buffer = ByteBuffer.allocate(16);
-		base_buffer.putLong(addr);
-		base_buffer.putLong(nonce);
-		byte[] base = base_buffer.array();
-		Shabal256 md = new Shabal256();
-		byte[] gendata = new byte[PLOT_SIZE + base.length];
-		System.arraycopy(base, 0, gendata, PLOT_SIZE, base.length);
+		byte[] gendata = new byte[PLOT_SIZE + 16];
+		byte[] finalhash = new byte[HASH_SIZE];
+		generate(new Shabal256(), addr, nonce, gendata, finalhash);
+		for(int i = 0; i < PLOT_SIZE; i++) {
+			data[i] = (byte) (gendata[i] ^ finalhash[i % HASH_SIZE]);
+		}
+	}
+	
+	/**
+	 * Computes only scoop pos of the plot for (addr, nonce) into scoop, reusing per-thread buffers.
+	 * The whole hash chain still has to be built, but no full-size plot is allocated or XORed.
+	 */
+	public static void getScoop(long addr, long nonce, int pos, byte[] scoop) {
+		Scratch s = scratch.get();
+		generate(s.md, addr, nonce, s.gendata, s.finalhash);
+		int offset = pos * SCOOP_SIZE;
+		for(int i = 0; i < SCOOP_SIZE; i++) {
+			scoop[i] = (byte) (s.gendata[offset + i] ^ s.finalhash[i % HASH_SIZE]);
+		}
+	}
+	
+	/**
+	 * Computes scoop pos for every (addrs[i], nonces[i]) into scoops[i], hashing Shabal256Lanes.LANES plots at a time.
+	 */
+	public static void getScoops(long[] addrs, long[] nonces, int pos, byte[][] scoops) {
+		BatchScratch s = batchScratch.get();
+		int offset = pos * SCOOP_SIZE;
+		for(int first = 0; first < nonces.length; first += Shabal256Lanes.LANES) {
+			int count = Math.min(Shabal256Lanes.LANES, nonces.length - first);
+			generateBatch(s, addrs, nonces, first, count);
+			for(int l = 0; l < count; l++) {
+				byte[] scoop = scoops[first + l];
+				for(int i = 0; i < SCOOP_SIZE; i++) {
+					scoop[i] = (byte) (s.gendata[l][offset + i] ^ s.finalhash[l][i % HASH_SIZE]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Generates the full plots of nonces startNonce .. startNonce + count - 1 for addr into plots[0 .. count - 1].
+	 */
+	public static void generatePlots(long addr, long startNonce, int count, byte[][] plots) {
+		BatchScratch s = batchScratch.get();
+		long[] addrs = new long[Shabal256Lanes.LANES];
+		long[] nonces = new long[Shabal256Lanes.LANES];
+		for(int first = 0; first < count; first += Shabal256Lanes.LANES) {
+			int lanes = Math.min(Shabal256Lanes.LANES, count - first);
+			for(int l = 0; l < lanes; l++) {
+				addrs[l] = addr;
+				nonces[l] = startNonce + first + l;
+			}
+			generateBatch(s, addrs, nonces, 0, lanes);
+			for(int l = 0; l < lanes; l++) {
+				byte[] plot = plots[first + l];
+				byte[] gendata = s.gendata[l];
+				byte[] finalhash = s.finalhash[l];
+				for(int i = 0; i < PLOT_SIZE; i++) {
+					plot[i] = (byte) (gendata[i] ^ finalhash[i % HASH_SIZE]);
+				}
+			}
+		}
+	}
+	
+	// lanes beyond count are filled with the last requested nonce and their results ignored
+	private static void generateBatch(BatchScratch s, long[] addrs, long[] nonces, int first, int count) {
+		for(int l = 0; l < Shabal256Lanes.LANES; l++) {
+			int src = first + Math.min(l, count - 1);
+			long addr = addrs[src];
+			long nonce = nonces[src];
+			byte[] gendata = s.gendata[l];
+			for(int i = 0; i < 8; i++) {
+				gendata[PLOT_SIZE + i] = (byte) (addr >>> (56 - 8 * i));
+				gendata[PLOT_SIZE + 8 + i] = (byte) (nonce >>> (56 - 8 * i));
+			}
+		}
+		for(int i = PLOT_SIZE; i > 0; i -= HASH_SIZE) {
+			int len = PLOT_SIZE + 16 - i;
+			if(len > HASH_CAP) {
+				len = HASH_CAP;
+			}
+			s.md.digest(s.gendata, i, len, s.gendata, i - HASH_SIZE);
+		}
+		s.md.digest(s.gendata, 0, PLOT_SIZE + 16, s.finalhash, 0);
+	}
+	
+	private static void generate(Shabal256 md, long addr, long nonce, byte[] gendata, byte[] finalhash) {
+		for(int i = 0; i < 8; i++) {
+			gendata[PLOT_SIZE + i] = (byte) (addr >>> (56 - 8 * i));
+			gendata[PLOT_SIZE + 8 + i] = (byte) (nonce >>> (56 - 8 * i));
+		}
 		for(int i = PLOT_SIZE; i > 0; i -= HASH_SIZE) {
 			md.reset();
-			int len = PLOT_SIZE + base.length - i;
+			int len = PLOT_SIZE + 16 - i;
 			if(len > HASH_CAP) {
 				len = HASH_CAP;
 			}
@@ -36,10 +132,7 @@ public class MiningPlot {
 		}
 		md.reset();
 		md.update(gendata);
-		byte[] finalhash = md.digest();
-		for(int i = 0; i < PLOT_SIZE; i++) {
-			data[i] = (byte) (gendata[i] ^ finalhash[i % HASH_SIZE]);
-		}
+		md.digest(finalhash, 0, HASH_SIZE);
 	}
 	
 	public byte[] getScoop(int pos) {
@@ -49,4 +142,16 @@ public class MiningPlot {
 	public void hashScoop(Shabal256 md, int pos) {
 		md.update(data, pos * SCOOP_SIZE, SCOOP_SIZE);
 	}
+	
+	private static final class Scratch {
+		private final Shabal256 md = new Shabal256();
+		private final byte[] gendata = new byte[PLOT_SIZE + 16];
+		private final byte[] finalhash = new byte[HASH_SIZE];
+	}
+	
+	private static final class BatchScratch {
+		private final Shabal256Lanes md = new Shabal256Lanes();
+		private final byte[][] gendata = new byte[Shabal256Lanes.LANES][PLOT_SIZE + 16];
+		private final byte[][] finalhash = new byte[Shabal256Lanes.LANES][HASH_SIZE];
+	}
 }
@@ -0,0 +1,161 @@
+package rise.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes plot files in the optimized layout, where stagger equals the number of nonces, so scoop N of all nonces is
+ * one contiguous region and a mining round is a single sequential read. Plots are generated in batches that fit the
+ * staging buffer; the number of finished nonces is kept in a .progress file so an interrupted run can be resumed
+ * by running it again with the same arguments.
+ */
+public final class PlotWriter {
+
+    private final long accountId;
+    private final long startNonce;
+    private final long nonces;
+    private final File file;
+    private final File partialFile;
+    private final File progressFile;
+    private final int batchNonces;
+    private final int numberOfThreads;
+
+    public PlotWriter(File directory, long accountId, long startNonce, long nonces, int memoryMB, int numberOfThreads) {
+        this.accountId = accountId;
+        this.startNonce = startNonce;
+        this.nonces = nonces;
+        this.numberOfThreads = Math.max(numberOfThreads, 1);
+        String name = Convert.toUnsignedLong(accountId) + "_" + startNonce + "_" + nonces + "_" + nonces;
+        this.file = new File(directory, name);
+        this.partialFile = new File(directory, name + ".plotting");
+        this.progressFile = new File(directory, name + ".progress");
+        int chunk = Shabal256Lanes.LANES * this.numberOfThreads;
+        long memoryNonces = (long) memoryMB * 1024 * 1024 / MiningPlot.PLOT_SIZE / chunk * chunk;
+        this.batchNonces = (int) Math.min(Math.max(memoryNonces, chunk), nonces);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void write() throws IOException {
+        if (file.exists()) {
+            Logger.logMessage("Plot file " + file + " already complete");
+            return;
+        }
+        long done = readProgress();
+        if (done > 0) {
+            Logger.logMessage("Resuming plot " + file + " at nonce " + (startNonce + done));
+        }
+        byte[][] plots = new byte[batchNonces][MiningPlot.PLOT_SIZE];
+        ByteBuffer scoops = ByteBuffer.allocate(batchNonces * MiningPlot.SCOOP_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try (FileChannel channel = FileChannel.open(partialFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long start = System.currentTimeMillis();
+            long written = 0;
+            while (done < nonces) {
+                int count = (int) Math.min(batchNonces, nonces - done);
+                generate(executor, startNonce + done, count, plots);
+                for (int scoop = 0; scoop < MiningPlot.SCOOPS_PER_PLOT; scoop++) {
+                    scoops.clear();
+                    for (int i = 0; i < count; i++) {
+                        scoops.put(plots[i], scoop * MiningPlot.SCOOP_SIZE, MiningPlot.SCOOP_SIZE);
+                    }
+                    scoops.flip();
+                    long position = ((long) scoop * nonces + done) * MiningPlot.SCOOP_SIZE;
+                    while (scoops.hasRemaining()) {
+                        position += channel.write(scoops, position);
+                    }
+                }
+                channel.force(false);
+                done += count;
+                written += count;
+                writeProgress(done);
+                long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+                Logger.logMessage("Plotted " + done + " of " + nonces + " nonces, " + (written * 60000 / elapsed) + " nonces/min");
+            }
+        } finally {
+            ThreadPool.shutdownExecutor(executor);
+        }
+        Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(progressFile.toPath());
+        Logger.logMessage("Plot file " + file + " complete");
+    }
+
+    private void generate(ExecutorService executor, final long firstNonce, int count, byte[][] plots) throws IOException {
+        int perThread = (count + numberOfThreads - 1) / numberOfThreads;
+        perThread = (perThread + Shabal256Lanes.LANES - 1) / Shabal256Lanes.LANES * Shabal256Lanes.LANES;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int first = 0; first < count; first += perThread) {
+            final int offset = first;
+            final int size = Math.min(perThread, count - first);
+            final byte[][] target = Arrays.copyOfRange(plots, first, first + size);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    MiningPlot.generatePlots(accountId, firstNonce + offset, size, target);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Plotting interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Plot generation failed", e.getCause());
+        }
+    }
+
+    private long readProgress() throws IOException {
+        if (!progressFile.exists() || !partialFile.exists()) {
+            return 0;
+        }
+        String progress = new String(Files.readAllBytes(progressFile.toPath()), StandardCharsets.UTF_8).trim();
+        try {
+            return Math.min(Math.max(Long.parseLong(progress), 0), nonces);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // written only after the plotted data is forced to disk, so the progress never runs ahead of the file
+    private void writeProgress(long done) throws IOException {
+        File tmp = new File(progressFile.getPath() + ".tmp");
+        Files.write(tmp.toPath(), Long.toString(done).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Usage: PlotWriter accountId startNonce nonces [directory] [memoryMB] [threads]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java -cp rise.jar:lib/*:conf rise.util.PlotWriter accountId startNonce nonces [directory] [memoryMB] [threads]");
+            return;
+        }
+        long accountId = Convert.parseAccountId(args[0]);
+        long startNonce = Long.parseLong(args[1]);
+        long nonces = Long.parseLong(args[2]);
+        File directory = new File(args.length > 3 ? args[3] : ".");
+        int memoryMB = args.length > 4 ? Integer.parseInt(args[4]) : 1024;
+        int numberOfThreads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        new PlotWriter(directory, accountId, startNonce, nonces, memoryMB, numberOfThreads).write();
+    }
+
+}
@@ -0,0 +1,124 @@
+package rise.util;
+
+import rise.Rise;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ScoopCache {
+
+    private static final int capacity = Math.max(Rise.getIntProperty("rise.scoopCacheSize"), 0);
+
+    // scoops are kept off-heap in a single slab, one SCOOP_SIZE slot per cached (account, nonce)
+    private static final ByteBuffer slab = ByteBuffer.allocateDirect(capacity * MiningPlot.SCOOP_SIZE);
+    private static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    public static byte[] getScoop(long accountId, long nonce, int scoopNum) {
+        Key key = new Key(accountId, nonce);
+        byte[] scoop = new byte[MiningPlot.SCOOP_SIZE];
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.scoopNum == scoopNum) {
+                slab.position(entry.slot * MiningPlot.SCOOP_SIZE);
+                slab.get(scoop);
+                hits.incrementAndGet();
+                return scoop;
+            }
+        }
+        misses.incrementAndGet();
+        MiningPlot.getScoop(accountId, nonce, scoopNum, scoop);
+        put(key, scoopNum, scoop);
+        return scoop;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public static int getCapacity() {
+        return capacity;
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static void put(Key key, int scoopNum, byte[] scoop) {
+        if (capacity == 0) {
+            return;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                int slot;
+                if (entries.size() < capacity) {
+                    slot = entries.size();
+                } else {
+                    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+                    slot = it.next().getValue().slot;
+                    it.remove();
+                }
+                entry = new Entry(slot);
+                entries.put(key, entry);
+            }
+            entry.scoopNum = scoopNum;
+            slab.position(entry.slot * MiningPlot.SCOOP_SIZE);
+            slab.put(scoop);
+        }
+    }
+
+    private static final class Key {
+
+        private final long accountId;
+        private final long nonce;
+
+        private Key(long accountId, long nonce) {
+            this.accountId = accountId;
+            this.nonce = nonce;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).accountId == accountId && ((Key)o).nonce == nonce;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = accountId * 31 + nonce;
+            return (int)(h ^ (h >>> 32));
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final int slot;
+        private int scoopNum;
+
+        private Entry(int slot) {
+            this.slot = slot;
+        }
+
+    }
+
+    private ScoopCache() {} // never
+
+}
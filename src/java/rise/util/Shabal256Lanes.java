@@ -0,0 +1,158 @@
+package rise.util;
+
+import java.util.Arrays;
+
+/**
+ * Shabal-256 over {@link #LANES} independent messages of identical length at once. The state of all lanes is
+ * interleaved word by word, so every step of the compression function is a loop over the lanes that the JIT
+ * can turn into SIMD instructions. Produces the same digests as {@link fr.cryptohash.Shabal256}.
+ */
+public final class Shabal256Lanes {
+
+    public static final int LANES = 16;
+
+    private static final int[] IV_A = new int[12];
+    private static final int[] IV_B = new int[16];
+    private static final int[] IV_C = new int[16];
+
+    static {
+        Shabal256Lanes init = new Shabal256Lanes();
+        init.W = -1;
+        for (int block = 0; block < 2; block++) {
+            for (int w = 0; w < 16; w++) {
+                for (int l = 0; l < LANES; l++) {
+                    init.M[w][l] = 256 + w + 16 * block;
+                }
+            }
+            init.core();
+        }
+        for (int w = 0; w < 12; w++) {
+            IV_A[w] = init.A[w][0];
+        }
+        for (int w = 0; w < 16; w++) {
+            IV_B[w] = init.B[w][0];
+            IV_C[w] = init.C[w][0];
+        }
+    }
+
+    private final int[][] A = new int[12][LANES];
+    private final int[][] B = new int[16][LANES];
+    private final int[][] C = new int[16][LANES];
+    private final int[][] M = new int[16][LANES];
+    private final byte[] tail = new byte[64];
+    private long W;
+
+    /**
+     * Hashes in[l][off .. off + len) for every lane l and writes the 32 byte digests to out[l][outOff ..].
+     * Both arrays must have {@link #LANES} entries.
+     */
+    public void digest(byte[][] in, int off, int len, byte[][] out, int outOff) {
+        reset();
+        int end = off + (len & ~63);
+        for (; off < end; off += 64) {
+            for (int l = 0; l < LANES; l++) {
+                byte[] data = in[l];
+                for (int w = 0; w < 16; w++) {
+                    M[w][l] = decodeLEInt(data, off + (w << 2));
+                }
+            }
+            core();
+        }
+        int rem = len & 63;
+        for (int l = 0; l < LANES; l++) {
+            System.arraycopy(in[l], off, tail, 0, rem);
+            tail[rem] = (byte)0x80;
+            for (int i = rem + 1; i < 64; i++) {
+                tail[i] = 0;
+            }
+            for (int w = 0; w < 16; w++) {
+                M[w][l] = decodeLEInt(tail, w << 2);
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            core();
+            W--;
+        }
+        for (int l = 0; l < LANES; l++) {
+            byte[] data = out[l];
+            for (int w = 0; w < 8; w++) {
+                int v = C[w + 8][l];
+                int o = outOff + (w << 2);
+                data[o] = (byte)v;
+                data[o + 1] = (byte)(v >>> 8);
+                data[o + 2] = (byte)(v >>> 16);
+                data[o + 3] = (byte)(v >>> 24);
+            }
+        }
+    }
+
+    private void reset() {
+        for (int w = 0; w < 12; w++) {
+            Arrays.fill(A[w], IV_A[w]);
+        }
+        for (int w = 0; w < 16; w++) {
+            Arrays.fill(B[w], IV_B[w]);
+            Arrays.fill(C[w], IV_C[w]);
+        }
+        W = 1;
+    }
+
+    private static int decodeLEInt(byte[] data, int off) {
+        return (data[off] & 0xFF)
+                | ((data[off + 1] & 0xFF) << 8)
+                | ((data[off + 2] & 0xFF) << 16)
+                | ((data[off + 3] & 0xFF) << 24);
+    }
+
+    private void core() {
+        final int[][] A = this.A, B = this.B, C = this.C, M = this.M;
+
+        for (int w = 0; w < 16; w++) {
+            int[] bw = B[w], mw = M[w];
+            for (int l = 0; l < LANES; l++) {
+                int b = bw[l] + mw[l];
+                bw[l] = (b << 17) | (b >>> 15);
+            }
+        }
+        int w0 = (int)W;
+        int w1 = (int)(W >>> 32);
+        int[] a0 = A[0], a1 = A[1];
+        for (int l = 0; l < LANES; l++) {
+            a0[l] ^= w0;
+            a1[l] ^= w1;
+        }
+        W++;
+
+        // the 48 steps of the permutation: step j updates A[j % 12] and B[j % 16]
+        for (int j = 0; j < 48; j++) {
+            int m = j & 15;
+            int[] a = A[j % 12], ap = A[(j + 11) % 12], c = C[(8 - j) & 15], mw = M[m];
+            int[] b0 = B[m], b13 = B[(m + 13) & 15], b9 = B[(m + 9) & 15], b6 = B[(m + 6) & 15];
+            for (int l = 0; l < LANES; l++) {
+                int prev = ap[l];
+                int v = ((a[l] ^ (((prev << 15) | (prev >>> 17)) * 5) ^ c[l]) * 3)
+                        ^ b13[l] ^ (b9[l] & ~b6[l]) ^ mw[l];
+                a[l] = v;
+                int b = b0[l];
+                b0[l] = ~((b << 1) | (b >>> 31)) ^ v;
+            }
+        }
+
+        for (int k = 11; k >= 0; k--) {
+            int[] a = A[k], c1 = C[(k + 11) & 15], c2 = C[(k + 15) & 15], c3 = C[(k + 3) & 15];
+            for (int l = 0; l < LANES; l++) {
+                a[l] += c1[l] + c2[l] + c3[l];
+            }
+        }
+
+        for (int w = 0; w < 16; w++) {
+            int[] bw = B[w], cw = C[w], mw = M[w];
+            for (int l = 0; l < LANES; l++) {
+                int b = bw[l];
+                bw[l] = cw[l] - mw[l];
+                cw[l] = b;
+            }
+        }
+    }
+
+}